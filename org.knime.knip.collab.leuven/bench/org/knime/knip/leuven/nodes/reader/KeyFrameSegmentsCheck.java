@@ -0,0 +1,100 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a video in key frame mode once as a whole and once split into
+ * segments the way the Video Reader node splits it, and compares the frames
+ * (timestamp and checksum of the luminance) of both reads.
+ * <p>
+ * Usage: <code>KeyFrameSegmentsCheck video segments [stride]</code>, exits
+ * with 1 if the frames differ.
+ */
+public class KeyFrameSegmentsCheck {
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err
+					.println("Usage: KeyFrameSegmentsCheck video segments [stride]");
+			System.exit(2);
+		}
+		final String path = args[0];
+		final int numSegments = Integer.parseInt(args[1]);
+		final int stride = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		final List<String> whole = new ArrayList<String>();
+		LuminanceFrameGrabber grabber = start(path);
+		final int length = grabber.getLengthInFrames();
+		final double frameDuration = grabber.getFrameRate() > 0 ? 1000000d / grabber
+				.getFrameRate() : 1000000d;
+		try {
+			read(grabber, new GrabberFrameProducer(grabber, stride, 0,
+					Long.MAX_VALUE, 0, true), whole);
+		} finally {
+			grabber.release();
+		}
+
+		final List<String> segmented = new ArrayList<String>();
+		final int totalFrames = Math.max(1, (length + stride - 1) / stride);
+		for (int s = 0; s < numSegments; s++) {
+			final int first = (int) ((long) s * totalFrames / numSegments);
+			final int next = (int) ((long) (s + 1) * totalFrames / numSegments);
+			final boolean last = s == numSegments - 1;
+
+			grabber = start(path);
+			try {
+				read(grabber,
+						new GrabberFrameProducer(grabber, stride, Math
+								.round((double) first * stride * frameDuration),
+								last ? Long.MAX_VALUE : Math
+										.round((double) next * stride
+												* frameDuration) - 1,
+								last ? 0 : next - first, true), segmented);
+			} finally {
+				grabber.release();
+			}
+		}
+
+		int differences = Math.abs(whole.size() - segmented.size());
+		for (int i = 0; i < Math.min(whole.size(), segmented.size()); i++) {
+			if (!whole.get(i).equals(segmented.get(i))) {
+				if (differences < 10) {
+					System.out.println("Frame " + i + ": " + whole.get(i)
+							+ " (whole) vs. " + segmented.get(i)
+							+ " (segmented)");
+				}
+				differences++;
+			}
+		}
+		System.out.println(whole.size() + " frames read as a whole, "
+				+ segmented.size() + " frames read in " + numSegments
+				+ " segments, " + differences + " differences.");
+		System.exit(differences == 0 ? 0 : 1);
+	}
+
+	private static LuminanceFrameGrabber start(final String path)
+			throws Exception {
+		final LuminanceFrameGrabber grabber = new LuminanceFrameGrabber(path);
+		grabber.start();
+		return grabber;
+	}
+
+	/*
+	 * Adds timestamp and checksum of each frame of the producer.
+	 */
+	private static void read(final LuminanceFrameGrabber grabber,
+			final GrabberFrameProducer producer, final List<String> frames)
+			throws Exception {
+		final FrameBuffer buffer = new FrameBuffer();
+		final CRC32 crc = new CRC32();
+		while (producer.next(buffer)) {
+			crc.reset();
+			crc.update(buffer.getData(), 0,
+					buffer.getWidth() * buffer.getHeight());
+			frames.add(grabber.getTimestamp() + "/"
+					+ Long.toHexString(crc.getValue()));
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.util.ArrayList;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * The volume loop of the Skeletonize3D plugin by Ignacio Arganda-Carreras on
+ * a boolean volume, x fastest, with the point tests of
+ * {@link BaselineThinning}. {@link BaselineThinning} thins planes only, this
+ * is the reference of {@link Thinning} for volumes in
+ * {@link ThinningBenchmark}.
+ */
+public class BaselineVolumeThinning {
+
+	private final BaselineThinning<ArrayImg<BitType, LongArray>> baseline = new BaselineThinning<ArrayImg<BitType, LongArray>>();
+
+	private final int[] eulerLUT = new int[256];
+
+	private final int width;
+
+	private final int height;
+
+	private final int depth;
+
+	private final boolean[] pixels;
+
+	/**
+	 * @param pixels
+	 *            the volume, thinned in place
+	 */
+	public BaselineVolumeThinning(boolean[] pixels, int width, int height,
+			int depth) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		baseline.fillEulerLUT(eulerLUT);
+	}
+
+	/**
+	 * Thins the volume in place.
+	 */
+	public void thin() {
+		final ArrayList<int[]> simpleBorderPoints = new ArrayList<int[]>();
+
+		// Loop through the image several times until there is no change.
+		int unchangedBorders = 0;
+		while (unchangedBorders < 6) {
+			unchangedBorders = 0;
+			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
+				for (int z = 0; z < depth; z++) {
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++) {
+							if (!getPixel(x, y, z)) {
+								continue;
+							}
+							// check 6-neighbors if point is a border point of
+							// type currentBorder
+							final boolean isBorderPoint = currentBorder == 1
+									&& !getPixel(x, y - 1, z)
+									|| currentBorder == 2
+									&& !getPixel(x, y + 1, z)
+									|| currentBorder == 3
+									&& !getPixel(x + 1, y, z)
+									|| currentBorder == 4
+									&& !getPixel(x - 1, y, z)
+									|| currentBorder == 5
+									&& !getPixel(x, y, z + 1)
+									|| currentBorder == 6
+									&& !getPixel(x, y, z - 1);
+							if (!isBorderPoint) {
+								continue;
+							}
+
+							// check if point is the end of an arc
+							final boolean[] neighbor = getNeighborhood(x, y, z);
+							int numberOfNeighbors = -1;
+							for (int i = 0; i < 27; i++) {
+								if (neighbor[i]) {
+									numberOfNeighbors++;
+								}
+							}
+							if (numberOfNeighbors == 1) {
+								continue;
+							}
+
+							if (!baseline.isEulerInvariant(neighbor, eulerLUT)
+									|| !baseline.isSimplePoint(neighbor)) {
+								continue;
+							}
+							simpleBorderPoints.add(new int[] { x, y, z });
+						}
+					}
+				}
+
+				// sequential re-checking to preserve connectivity when
+				// deleting in a parallel way
+				boolean noChange = true;
+				for (final int[] index : simpleBorderPoints) {
+					setPixel(index[0], index[1], index[2], false);
+					if (!baseline.isSimplePoint(getNeighborhood(index[0],
+							index[1], index[2]))) {
+						setPixel(index[0], index[1], index[2], true);
+					} else {
+						noChange = false;
+					}
+				}
+				if (noChange) {
+					unchangedBorders++;
+				}
+				simpleBorderPoints.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the 27-pixels neighborhood of a point, 0 out of the volume
+	 */
+	private boolean[] getNeighborhood(int x, int y, int z) {
+		final boolean[] neighborhood = new boolean[27];
+		int n = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					neighborhood[n++] = getPixel(x + dx, y + dy, z + dz);
+				}
+			}
+		}
+		return neighborhood;
+	}
+
+	private boolean getPixel(int x, int y, int z) {
+		return x >= 0 && x < width && y >= 0 && y < height && z >= 0
+				&& z < depth && pixels[(z * height + y) * width + x];
+	}
+
+	private void setPixel(int x, int y, int z, boolean value) {
+		pixels[(z * height + y) * width + x] = value;
+	}
+}
@@ -0,0 +1,638 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Correctness checks and timings of the thinnings, run as a plain Java
+ * program with the plug-in and its dependencies on the class path (the
+ * plug-in is built by PDE, which has no place for a JMH module):
+ *
+ * <pre>
+ * ThinningBenchmark [directory of sample masks]
+ * </pre>
+ *
+ * The checks compare the skeletons of random blobs and larva-like masks:
+ * <ul>
+ * <li>Lee94 without executor must give exactly the skeleton of
+ * {@link BaselineThinning}.</li>
+ * <li>Lee94 with executor, i.e. the optional parallel bands of the node,
+ * thins planes of more than 64 lines in bands. This is the only documented
+ * deviation: its skeleton may differ from the baseline's within 8 lines of a
+ * band border, but nowhere else. No component of the mask may be split into
+ * several components of the skeleton or lose a skeleton which the baseline
+ * keeps, and thinning the skeleton again must not change it.</li>
+ * <li>Lee94 without executor must give exactly the skeleton of
+ * {@link BaselineVolumeThinning} for volumes.</li>
+ * <li>The same as for bands holds for volumes thinned in slabs with executor,
+ * compared with the volumes thinned without executor, except that slabs of 4
+ * slices leave no room to check where the skeletons differ.</li>
+ * <li>Zhang-Suen and Guo-Hall must give the same skeleton with and without
+ * executor.</li>
+ * </ul>
+ * Every other difference fails the check. Like the plugin, Lee94 deletes a
+ * few small objects completely, the number of these and of the pixels
+ * differing near band borders is reported.
+ * <p>
+ * The timings report the time and the memory allocated by the calling thread
+ * per image for images of 64, 256 and 1024 pixels square and the sample
+ * masks. The thinnings reuse their working buffers like in the node. The
+ * program exits with 1 if a check fails.
+ */
+public class ThinningBenchmark {
+
+	/** edge lengths of the timed images */
+	private static final int[] SIZES = { 64, 256, 1024 };
+
+	/** number of checked images */
+	private static final int CHECKED_IMAGES = 2000;
+
+	/** number of checked volumes */
+	private static final int CHECKED_VOLUMES = 200;
+
+	/** number of lines of a band of Lee94 with executor, see Thinning */
+	private static final int BAND_HEIGHT = 64;
+
+	/** lines around a band border in which the skeleton may differ */
+	private static final int BAND_MARGIN = 8;
+
+	/** minimum time of a measurement in milliseconds */
+	private static final long MEASUREMENT_TIME = 2000;
+
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * Binary image or volume, x fastest.
+	 */
+	private static final class Mask {
+		final String name;
+		final int width;
+		final int height;
+		final int depth;
+		final boolean[] pixels;
+
+		Mask(String name, int width, int height, int depth) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+			this.pixels = new boolean[width * height * depth];
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		final List<Mask> samples = new ArrayList<Mask>();
+		if (args.length > 0) {
+			final File[] files = new File(args[0]).listFiles();
+			if (files != null) {
+				for (final File file : files) {
+					final BufferedImage image = ImageIO.read(file);
+					if (image != null) {
+						samples.add(toMask(file.getName(), image));
+					}
+				}
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		try {
+			final boolean passed = check(executor, samples);
+			benchmark(executor, samples);
+			System.out.println(passed ? "All checks passed."
+					: "Checks failed.");
+			if (!passed) {
+				System.exit(1);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/* ----------------------------------------------------------------------- */
+
+	private static boolean check(ExecutorService executor, List<Mask> samples) {
+		final Random random = new Random(0);
+		final List<Mask> masks = new ArrayList<Mask>(samples);
+		for (int m = 0; m < CHECKED_IMAGES; m++) {
+			final int width = 8 + random.nextInt(120);
+			final int height = 8 + random.nextInt(300);
+			masks.add(m % 2 == 0 ? blob(random, width, height, 1) : larva(
+					random, width, height, 1));
+		}
+
+		int failures = 0;
+		int bandedImages = 0;
+		long bandedPixels = 0;
+		int vanished = 0;
+		int bandedVanished = 0;
+		for (final Mask mask : masks) {
+			final Mask reference = thin(baseline(), mask);
+			final Mask sequential = thin(lee94(null), mask);
+			if (countDifferences(reference, sequential) > 0) {
+				failures++;
+				report(mask, "Lee94 differs from the baseline");
+			}
+
+			final Mask banded = thin(lee94(executor), mask);
+			final int differences = countDifferences(reference, banded);
+			if (differences > 0) {
+				bandedImages++;
+				bandedPixels += differences;
+			}
+			if (countDifferencesAwayFromBands(mask, reference, banded) > 0) {
+				failures++;
+				report(mask, "Lee94 in bands differs away from the band borders");
+			}
+			if (countSplitComponents(mask, banded) > 0) {
+				failures++;
+				report(mask, "Lee94 in bands splits objects");
+			}
+			if (countLostComponents(mask, reference, banded) > 0) {
+				failures++;
+				report(mask, "Lee94 in bands deletes objects");
+			}
+			vanished += countVanishedComponents(mask, reference);
+			bandedVanished += countVanishedComponents(mask, banded);
+			if (countDifferences(banded, thin(lee94(null), banded)) > 0) {
+				failures++;
+				report(mask, "Lee94 in bands does not thin completely");
+			}
+
+			for (final int algorithm : new int[] { Thinning2D.ZHANG_SUEN,
+					Thinning2D.GUO_HALL }) {
+				if (countDifferences(thin(thinning2D(algorithm, null),
+						mask), thin(thinning2D(algorithm, executor),
+						mask)) > 0) {
+					failures++;
+					report(mask, "2D thinning " + algorithm
+							+ " depends on the executor");
+				}
+			}
+		}
+		System.out.println(masks.size() + " images checked, " + bandedImages
+				+ " skeletons of Lee94 in bands differ from the baseline by "
+				+ bandedPixels + " pixels in total, " + vanished + " ("
+				+ bandedVanished + " in bands) objects deleted completely.");
+
+		int slabbedVolumes = 0;
+		int vanishedInVolumes = 0;
+		int slabbedVanished = 0;
+		for (int v = 0; v < CHECKED_VOLUMES; v++) {
+			final int width = 5 + random.nextInt(40);
+			final int height = 5 + random.nextInt(40);
+			final int depth = 2 + random.nextInt(30);
+			final Mask mask = v % 2 == 0 ? blob(random, width, height, depth)
+					: larva(random, width, height, depth);
+			final Mask reference = baselineVolume(mask);
+			final Mask sequential = thin(lee94(null), mask);
+			if (countDifferences(reference, sequential) > 0) {
+				failures++;
+				report(mask, "Lee94 differs from the plugin");
+			}
+
+			final Mask slabbed = thin(lee94(executor), mask);
+			if (countDifferences(sequential, slabbed) > 0) {
+				slabbedVolumes++;
+			}
+			if (countSplitComponents(mask, slabbed) > 0) {
+				failures++;
+				report(mask, "Lee94 in slabs splits objects");
+			}
+			if (countLostComponents(mask, sequential, slabbed) > 0) {
+				failures++;
+				report(mask, "Lee94 in slabs deletes objects");
+			}
+			vanishedInVolumes += countVanishedComponents(mask, reference);
+			slabbedVanished += countVanishedComponents(mask, slabbed);
+			if (countDifferences(slabbed, thin(lee94(null), slabbed)) > 0) {
+				failures++;
+				report(mask, "Lee94 in slabs does not thin completely");
+			}
+		}
+		System.out.println(CHECKED_VOLUMES + " volumes checked, "
+				+ slabbedVolumes + " skeletons of Lee94 in slabs differ from "
+				+ "the sequential ones, " + vanishedInVolumes + " ("
+				+ slabbedVanished + " in slabs) objects deleted completely.");
+
+		return failures == 0;
+	}
+
+	private static void report(Mask mask, String msg) {
+		System.out.println(msg + ": " + mask.name + " " + mask.width + "x"
+				+ mask.height + "x" + mask.depth);
+	}
+
+	/* ----------------------------------------------------------------------- */
+
+	private static void benchmark(ExecutorService executor,
+			List<Mask> samples) {
+		System.out.println(String.format(Locale.US, "%-28s %-22s %12s %14s",
+				"Thinning", "Image", "ms/image", "bytes/image"));
+
+		final Random random = new Random(1);
+		final List<Mask> masks = new ArrayList<Mask>();
+		for (final int size : SIZES) {
+			masks.add(blob(random, size, size, 1));
+			masks.add(larva(random, size, size, 1));
+		}
+		masks.addAll(samples);
+
+		for (final Mask mask : masks) {
+			// the baseline needs minutes for the large images
+			if (mask.width * mask.height <= 256 * 256) {
+				measure("Baseline Lee94", baseline(), mask);
+			}
+			measure("Lee94", lee94(null), mask);
+			measure("Lee94 with executor", lee94(executor), mask);
+			measure("Zhang-Suen", thinning2D(Thinning2D.ZHANG_SUEN, null),
+					mask);
+			measure("Zhang-Suen with executor",
+					thinning2D(Thinning2D.ZHANG_SUEN, executor), mask);
+			measure("Guo-Hall", thinning2D(Thinning2D.GUO_HALL, null), mask);
+		}
+
+		for (final Mask mask : new Mask[] { blob(random, 128, 128, 32),
+				larva(random, 128, 128, 32) }) {
+			measure("Lee94 volume", lee94(null), mask);
+			measure("Lee94 volume with executor", lee94(executor), mask);
+		}
+	}
+
+	private static void measure(String name,
+			UnaryOperation<ArrayImg<BitType, LongArray>, ArrayImg<BitType, LongArray>> thinning,
+			Mask mask) {
+		final ArrayImg<BitType, LongArray> input = toImg(mask);
+		final ArrayImg<BitType, LongArray> output = createImg(mask);
+
+		// warm up
+		final long warmUpEnd = System.currentTimeMillis() + MEASUREMENT_TIME
+				/ 2;
+		do {
+			thinning.compute(input, output);
+		} while (System.currentTimeMillis() < warmUpEnd);
+
+		int runs = 0;
+		final long allocated = getAllocatedBytes();
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			thinning.compute(input, output);
+			runs++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MEASUREMENT_TIME * 1000000);
+		final long bytes = getAllocatedBytes() - allocated;
+
+		System.out.println(String.format(Locale.US,
+				"%-28s %-22s %12.3f %14s", name, mask.name + " " + mask.width
+						+ "x" + mask.height + "x" + mask.depth, elapsed / 1e6
+						/ runs, allocated < 0 ? "n/a" : Long.toString(bytes
+						/ runs)));
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far, -1 if the JVM
+	 *         does not tell
+	 */
+	private static long getAllocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/* ----------------------------------------------------------------------- */
+
+	/**
+	 * Overlapping ellipses (ellipsoids) with some pixels flipped, which gives
+	 * holes and small separate objects.
+	 */
+	private static Mask blob(Random random, int width, int height, int depth) {
+		final Mask mask = new Mask("blob", width, height, depth);
+		final int numEllipses = 1 + random.nextInt(4);
+		for (int e = 0; e < numEllipses; e++) {
+			final double cx = random.nextDouble() * width;
+			final double cy = random.nextDouble() * height;
+			final double cz = random.nextDouble() * depth;
+			final double rx = 2 + random.nextDouble() * width / 2;
+			final double ry = 2 + random.nextDouble() * height / 2;
+			final double rz = 1 + random.nextDouble() * depth / 2;
+			int i = 0;
+			for (int z = 0; z < depth; z++) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++, i++) {
+						final double dx = (x - cx) / rx;
+						final double dy = (y - cy) / ry;
+						final double dz = depth > 1 ? (z - cz) / rz : 0;
+						if (dx * dx + dy * dy + dz * dz < 1) {
+							mask.pixels[i] = true;
+						}
+					}
+				}
+			}
+		}
+		for (int i = 0; i < mask.pixels.length; i++) {
+			if (random.nextDouble() < 0.03) {
+				mask.pixels[i] = !mask.pixels[i];
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Body tapering to both ends along a smoothly bending center line, in a
+	 * volume the larva crawls forward from slice to slice.
+	 */
+	private static Mask larva(Random random, int width, int height, int depth) {
+		final Mask mask = new Mask("larva", width, height, depth);
+		final int size = Math.min(width, height);
+		final int length = Math.max(4, (int) (size * 0.7));
+		final double radius = Math.max(1.5, size / 12d);
+		final double[] xs = new double[length];
+		final double[] ys = new double[length];
+		double x = width / 2d;
+		double y = height / 2d;
+		double angle = random.nextDouble() * 2 * Math.PI;
+		double bend = 0;
+		for (int p = 0; p < length; p++) {
+			xs[p] = x;
+			ys[p] = y;
+			bend = 0.9 * bend + 0.05 * (random.nextDouble() - 0.5);
+			angle += bend;
+			x += Math.cos(angle);
+			y += Math.sin(angle);
+		}
+		final double startX = xs[length / 2];
+		final double startY = ys[length / 2];
+		for (int z = 0; z < depth; z++) {
+			// crawl by one pixel per slice
+			final double shiftX = z * Math.cos(angle) - startX + width / 2d
+					- (xs[length - 1] - startX) / 2;
+			final double shiftY = z * Math.sin(angle) - startY + height / 2d
+					- (ys[length - 1] - startY) / 2;
+			for (int p = 0; p < length; p++) {
+				final double r = 0.5 + radius
+						* Math.sqrt(Math.sin(Math.PI * (p + 0.5) / length));
+				final double px = xs[p] + shiftX;
+				final double py = ys[p] + shiftY;
+				for (int yy = (int) Math.max(0, py - r); yy <= Math.min(
+						height - 1, py + r); yy++) {
+					for (int xx = (int) Math.max(0, px - r); xx <= Math.min(
+							width - 1, px + r); xx++) {
+						if ((xx - px) * (xx - px) + (yy - py) * (yy - py) <= r
+								* r) {
+							mask.pixels[(z * height + yy) * width + xx] = true;
+						}
+					}
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Non-black pixels of an image are foreground.
+	 */
+	private static Mask toMask(String name, BufferedImage image) {
+		final Mask mask = new Mask(name, image.getWidth(), image.getHeight(),
+				1);
+		for (int y = 0; y < mask.height; y++) {
+			for (int x = 0; x < mask.width; x++) {
+				mask.pixels[y * mask.width + x] = (image.getRGB(x, y) & 0xffffff) != 0;
+			}
+		}
+		return mask;
+	}
+
+	/* ----------------------------------------------------------------------- */
+
+	private static ArrayImg<BitType, LongArray> createImg(Mask mask) {
+		return mask.depth > 1 ? ArrayImgs.bits(mask.width, mask.height,
+				mask.depth) : ArrayImgs.bits(mask.width, mask.height);
+	}
+
+	private static ArrayImg<BitType, LongArray> toImg(Mask mask) {
+		final ArrayImg<BitType, LongArray> img = createImg(mask);
+		int i = 0;
+		for (final BitType t : img) {
+			t.set(mask.pixels[i++]);
+		}
+		return img;
+	}
+
+	private static UnaryOperation<ArrayImg<BitType, LongArray>, ArrayImg<BitType, LongArray>> baseline() {
+		return new BaselineThinning<ArrayImg<BitType, LongArray>>();
+	}
+
+	private static Mask baselineVolume(Mask mask) {
+		final Mask result = new Mask(mask.name, mask.width, mask.height,
+				mask.depth);
+		System.arraycopy(mask.pixels, 0, result.pixels, 0,
+				mask.pixels.length);
+		new BaselineVolumeThinning(result.pixels, mask.width, mask.height,
+				mask.depth).thin();
+		return result;
+	}
+
+	private static UnaryOperation<ArrayImg<BitType, LongArray>, ArrayImg<BitType, LongArray>> lee94(
+			ExecutorService executor) {
+		return new Thinning<ArrayImg<BitType, LongArray>>(executor, false,
+				new ThinningBuffers());
+	}
+
+	private static UnaryOperation<ArrayImg<BitType, LongArray>, ArrayImg<BitType, LongArray>> thinning2D(
+			int algorithm, ExecutorService executor) {
+		return new Thinning2D<ArrayImg<BitType, LongArray>>(algorithm,
+				executor, new ThinningBuffers());
+	}
+
+	private static Mask thin(
+			UnaryOperation<ArrayImg<BitType, LongArray>, ArrayImg<BitType, LongArray>> thinning,
+			Mask mask) {
+		final ArrayImg<BitType, LongArray> output = thinning.compute(toImg(mask),
+				createImg(mask));
+		final Mask result = new Mask(mask.name, mask.width, mask.height,
+				mask.depth);
+		int i = 0;
+		for (final BitType t : output) {
+			result.pixels[i++] = t.get();
+		}
+		return result;
+	}
+
+	private static int countDifferences(Mask a, Mask b) {
+		int differences = 0;
+		for (int i = 0; i < a.pixels.length; i++) {
+			if (a.pixels[i] != b.pixels[i]) {
+				differences++;
+			}
+		}
+		return differences;
+	}
+
+	/**
+	 * @return the number of pixels of a plane in which the skeletons differ
+	 *         and which are more than BAND_MARGIN lines away from the border
+	 *         of a band; the bands start at the first line of the foreground
+	 */
+	private static int countDifferencesAwayFromBands(Mask mask, Mask a,
+			Mask b) {
+		int firstLine = mask.height;
+		for (int i = 0; i < mask.pixels.length; i++) {
+			if (mask.pixels[i]) {
+				firstLine = i / mask.width;
+				break;
+			}
+		}
+		int differences = 0;
+		for (int i = 0; i < a.pixels.length; i++) {
+			if (a.pixels[i] != b.pixels[i]) {
+				final int line = i / mask.width - firstLine;
+				final int distance = line < BAND_HEIGHT ? BAND_HEIGHT - line
+						: Math.min(line % BAND_HEIGHT, BAND_HEIGHT - line
+								% BAND_HEIGHT);
+				if (distance > BAND_MARGIN) {
+					differences++;
+				}
+			}
+		}
+		return differences;
+	}
+
+	/**
+	 * @return the number of components of the mask which contain several
+	 *         components of the skeleton
+	 */
+	private static int countSplitComponents(Mask mask, Mask skeleton) {
+		final int[] maskLabels = new int[mask.pixels.length];
+		final int[] skeletonLabels = new int[mask.pixels.length];
+		final int numComponents = label(mask, maskLabels);
+		label(skeleton, skeletonLabels);
+		final int[] skeletonLabelOf = new int[numComponents + 1];
+		final boolean[] split = new boolean[numComponents + 1];
+		int numSplit = 0;
+		for (int i = 0; i < mask.pixels.length; i++) {
+			if (!skeleton.pixels[i]) {
+				continue;
+			}
+			final int component = maskLabels[i];
+			if (skeletonLabelOf[component] == 0) {
+				skeletonLabelOf[component] = skeletonLabels[i];
+			} else if (skeletonLabelOf[component] != skeletonLabels[i]
+					&& !split[component]) {
+				split[component] = true;
+				numSplit++;
+			}
+		}
+		return numSplit;
+	}
+
+	/**
+	 * @return the number of components of the mask without skeleton pixels
+	 */
+	private static int countVanishedComponents(Mask mask, Mask skeleton) {
+		final int[] labels = new int[mask.pixels.length];
+		final int numComponents = label(mask, labels);
+		final boolean[] kept = new boolean[numComponents + 1];
+		int numKept = 0;
+		for (int i = 0; i < mask.pixels.length; i++) {
+			if (skeleton.pixels[i] && !kept[labels[i]]) {
+				kept[labels[i]] = true;
+				numKept++;
+			}
+		}
+		return numComponents - numKept;
+	}
+
+	/**
+	 * @return the number of components of the mask with pixels of the
+	 *         reference skeleton but without pixels of the skeleton
+	 */
+	private static int countLostComponents(Mask mask, Mask reference,
+			Mask skeleton) {
+		final int[] labels = new int[mask.pixels.length];
+		final int numComponents = label(mask, labels);
+		final boolean[] inReference = new boolean[numComponents + 1];
+		final boolean[] inSkeleton = new boolean[numComponents + 1];
+		for (int i = 0; i < mask.pixels.length; i++) {
+			inReference[labels[i]] |= reference.pixels[i];
+			inSkeleton[labels[i]] |= skeleton.pixels[i];
+		}
+		int numLost = 0;
+		for (int c = 1; c <= numComponents; c++) {
+			if (inReference[c] && !inSkeleton[c]) {
+				numLost++;
+			}
+		}
+		return numLost;
+	}
+
+	/**
+	 * Labels the 8-connected (26-connected in volumes) components of a mask.
+	 *
+	 * @param labels
+	 *            receives the label of each pixel, 1 for the first component,
+	 *            0 for the background
+	 * @return the number of components
+	 */
+	private static int label(Mask mask, int[] labels) {
+		final int[] queue = new int[mask.pixels.length];
+		final int sliceSize = mask.width * mask.height;
+		int numComponents = 0;
+		for (int start = 0; start < mask.pixels.length; start++) {
+			if (!mask.pixels[start] || labels[start] != 0) {
+				continue;
+			}
+			numComponents++;
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = start;
+			labels[start] = numComponents;
+			while (head < tail) {
+				final int i = queue[head++];
+				final int x = i % mask.width;
+				final int y = i % sliceSize / mask.width;
+				final int z = i / sliceSize;
+				for (int dz = -1; dz <= 1; dz++) {
+					for (int dy = -1; dy <= 1; dy++) {
+						for (int dx = -1; dx <= 1; dx++) {
+							final int nx = x + dx;
+							final int ny = y + dy;
+							final int nz = z + dz;
+							if (nx < 0 || nx >= mask.width || ny < 0
+									|| ny >= mask.height || nz < 0
+									|| nz >= mask.depth) {
+								continue;
+							}
+							final int n = nz * sliceSize + ny * mask.width
+									+ nx;
+							if (mask.pixels[n] && labels[n] == 0) {
+								labels[n] = numComponents;
+								queue[tail++] = n;
+							}
+						}
+					}
+				}
+			}
+		}
+		return numComponents;
+	}
+}
@@ -8,6 +8,7 @@ import org.knime.core.node.NodeFactory;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSetFactory;
 import org.knime.core.node.config.ConfigRO;
+import org.knime.knip.leuven.nodes.thinning.SkeletonGraphNodeFactory;
 import org.knime.knip.leuven.nodes.thinning.ThinningNodeFactory;
 
 /**
@@ -26,6 +27,8 @@ public class LeuvenNodeSetFactory implements NodeSetFactory {
 
 		m_nodeFactories.put(ThinningNodeFactory.class.getCanonicalName(), "/community/knip/projects/leuven");
 
+		m_nodeFactories.put(SkeletonGraphNodeFactory.class.getCanonicalName(), "/community/knip/projects/leuven");
+
 		// m_nodeFactories.put(HeadEstimationNodeFactory.class.getCanonicalName(),
 		// "/community/knip/projects/leuven");
 
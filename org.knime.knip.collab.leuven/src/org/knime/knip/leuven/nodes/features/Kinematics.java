@@ -0,0 +1,308 @@
+package org.knime.knip.leuven.nodes.features;
+
+/**
+ * Kinematics of the frames of a segment of a track. Every frame is compared
+ * with the frames one, two and three lags before it: velocities are
+ * differences of positions divided by the time between the two frames,
+ * changes of a velocity or an angle are divided by that time as well. With
+ * one time unit per frame and a lag of one frame this gives the features the
+ * node always computed.
+ * <p>
+ * The frames of a segment are preceded by HISTORY times the largest lag
+ * frames in a window of primitive arrays. Every series (distances, speeds,
+ * angles, polar coordinates, ...) is computed once per frame in a loop over
+ * the window, the values of the previous frames of a lag are the entries
+ * shifted by the lag. An instance keeps its arrays for the next segment and
+ * must not be shared between threads.
+ */
+final class Kinematics {
+
+    /** number of features of a point per lag, see {@link #point} */
+    static final int POINT_FEATURES = 24;
+
+    /** number of features of the rotation per lag, see {@link #rotation} */
+    static final int ROTATION_FEATURES = 10;
+
+    /** number of jerk features of a point per lag, see {@link #point} */
+    static final int JERK_FEATURES = 2;
+
+    /** number of lags before a frame its features depend on */
+    static final int HISTORY = 3;
+
+    // points of a frame: head, tail, center and, in polar coordinates only,
+    // the head relative to the center
+    private static final int HEAD = 0;
+    private static final int TAIL = 1;
+    private static final int CENTER = 2;
+    private static final int RELATIVE = 3;
+
+    private final int[] lags;
+
+    // frames before the segment in the window
+    private final int history;
+
+    // frames of the window
+    private int size = 0;
+
+    private double[] time = new double[0];
+    private final double[][] x = new double[CENTER + 1][0];
+    private final double[][] y = new double[CENTER + 1][0];
+    private final double[][] radialCoordinate = new double[RELATIVE + 1][0];
+    private final double[][] angularCoordinate = new double[RELATIVE + 1][0];
+
+    // series of one lag and point
+    private double[] timediff = new double[0];
+    private double[] distance = new double[0];
+    private double[] speed = new double[0];
+    private double[] speedX = new double[0];
+    private double[] speedY = new double[0];
+    private double[] speedChange = new double[0];
+    private double[] speedChangeX = new double[0];
+    private double[] speedChangeY = new double[0];
+    private double[] angle = new double[0];
+    private double[] radialVelocity = new double[0];
+    private double[] tangentialVelocity = new double[0];
+
+    /**
+     * @param lags the lags in frames in ascending order
+     */
+    Kinematics(int[] lags) {
+        this.lags = lags;
+        history = HISTORY * lags[lags.length - 1];
+    }
+
+    static double euclideanDistance(double x1, double y1, double x2, double y2) {
+        double a = x1 - x2;
+        double b = y1 - y2;
+        return Math.sqrt(a * a + b * b);
+    }
+
+    /**
+     * @return the number of frames before a segment in the window
+     */
+    int getHistory() {
+        return history;
+    }
+
+    /**
+     * Prepares the window for a segment, its frames follow the history.
+     *
+     * @param numFrames number of frames of the segment
+     */
+    void start(int numFrames) {
+        size = history + numFrames;
+        if (time.length >= size) {
+            return;
+        }
+        int capacity = Math.max(size, 2 * time.length);
+        time = new double[capacity];
+        for (int p = HEAD; p <= CENTER; p++) {
+            x[p] = new double[capacity];
+            y[p] = new double[capacity];
+        }
+        for (int p = HEAD; p <= RELATIVE; p++) {
+            radialCoordinate[p] = new double[capacity];
+            angularCoordinate[p] = new double[capacity];
+        }
+        timediff = new double[capacity];
+        distance = new double[capacity];
+        speed = new double[capacity];
+        speedX = new double[capacity];
+        speedY = new double[capacity];
+        speedChange = new double[capacity];
+        speedChangeX = new double[capacity];
+        speedChangeY = new double[capacity];
+        angle = new double[capacity];
+        radialVelocity = new double[capacity];
+        tangentialVelocity = new double[capacity];
+    }
+
+    /**
+     * Sets a frame of the window.
+     *
+     * @param frame index of the frame in the window
+     */
+    void setFrame(int frame, double xHead, double yHead, double xTail, double yTail, double t) {
+        x[HEAD][frame] = xHead;
+        y[HEAD][frame] = yHead;
+        x[TAIL][frame] = xTail;
+        y[TAIL][frame] = yTail;
+        time[frame] = t;
+    }
+
+    /**
+     * Computes the features of the frames of the segment, per lag the
+     * POINT_FEATURES features of head, tail and center, the
+     * ROTATION_FEATURES features of the rotation of the head around the
+     * center and the JERK_FEATURES features of head, tail and center. The
+     * distance of head and tail follows the points of the first lag. The
+     * jerk comes last, the features computed before it was added keep their
+     * columns.
+     *
+     * @param features receives the features
+     * @param offsets index of the first feature in features per frame of the
+     *            segment
+     */
+    void compute(double[] features, int[] offsets) {
+        // the polar coordinates are needed up to two lags back
+        int first = history - 2 * lags[lags.length - 1];
+        for (int j = 0; j < size; j++) {
+            x[CENTER][j] = (x[HEAD][j]+x[TAIL][j])/2;
+            y[CENTER][j] = (y[HEAD][j]+y[TAIL][j])/2;
+        }
+        for (int p = HEAD; p <= CENTER; p++) {
+            double[] xp = x[p];
+            double[] yp = y[p];
+            double[] radial = radialCoordinate[p];
+            double[] angular = angularCoordinate[p];
+            for (int j = first; j < size; j++) {
+                radial[j] = Math.sqrt(xp[j]*xp[j] + yp[j]*yp[j]);
+                angular[j] = Math.atan2(xp[j], yp[j]);
+            }
+        }
+        double[] radial = radialCoordinate[RELATIVE];
+        double[] angular = angularCoordinate[RELATIVE];
+        for (int j = first; j < size; j++) {
+            double xr = x[HEAD][j] - x[CENTER][j];
+            double yr = y[HEAD][j] - y[CENTER][j];
+            radial[j] = Math.sqrt(xr*xr + yr*yr);
+            angular[j] = Math.atan2(xr, yr);
+        }
+
+        int column = 0;
+        for (int l = 0; l < lags.length; l++) {
+            int lag = lags[l];
+            for (int j = history - 2 * lag; j < size; j++) {
+                timediff[j] = time[j] - time[j - lag];
+            }
+            int jerkColumn = column + 3 * POINT_FEATURES + (l == 0 ? 1 : 0) + ROTATION_FEATURES;
+            for (int p = HEAD; p <= CENTER; p++) {
+                point(p, lag, features, offsets, column, jerkColumn + p * JERK_FEATURES);
+                column += POINT_FEATURES;
+            }
+            if (l == 0) {
+                for (int j = history; j < size; j++) {
+                    features[offsets[j - history] + column] = euclideanDistance(x[HEAD][j], y[HEAD][j], x[TAIL][j], y[TAIL][j]);
+                }
+                column++;
+            }
+            rotation(lag, features, offsets, column);
+            column += ROTATION_FEATURES + 3 * JERK_FEATURES;
+        }
+    }
+
+    /**
+     * Computes the POINT_FEATURES features of a point for a lag: position,
+     * speed and acceleration (speed change), the angle between the last two
+     * moves and its change, and the velocities in polar coordinates. The
+     * JERK_FEATURES features, jerk and its absolute value, are written from
+     * jerkColumn on.
+     */
+    private void point(int p, int lag, double[] features, int[] offsets, int column, int jerkColumn) {
+        double[] xp = x[p];
+        double[] yp = y[p];
+
+        for (int j = history - 2 * lag; j < size; j++) {
+            double dx = xp[j] - xp[j - lag];
+            double dy = yp[j] - yp[j - lag];
+            distance[j] = Math.sqrt(dx*dx + dy*dy);
+            speed[j] = distance[j]/timediff[j];
+            speedX[j] = Math.abs(dx)/timediff[j];
+            speedY[j] = Math.abs(dy)/timediff[j];
+        }
+        for (int j = history - lag; j < size; j++) {
+            speedChange[j] = (speed[j] - speed[j - lag])/timediff[j];
+            speedChangeX[j] = (speedX[j] - speedX[j - lag])/timediff[j];
+            speedChangeY[j] = (speedY[j] - speedY[j - lag])/timediff[j];
+        }
+        for (int j = history - lag; j < size; j++) {
+            // triangle of the frame and the frames one and two lags before
+            double a = distance[j - lag];
+            double c = distance[j];
+            double dx = xp[j] - xp[j - 2 * lag];
+            double dy = yp[j] - yp[j - 2 * lag];
+            double b = Math.sqrt(dx*dx + dy*dy);
+            angle[j] = Math.acos((a*a+ c*c - b*b)/(2*a*c));
+        }
+        polarVelocities(p, lag);
+
+        for (int j = history; j < size; j++) {
+            double dt = timediff[j];
+            double jerk = (speedChange[j] - speedChange[j - lag])/dt;
+            double angleChange = (angle[j] - angle[j - lag])/dt;
+            double radialVelocityChange = (radialVelocity[j] - radialVelocity[j - lag])/dt;
+            double tangentialVelocityChange = (tangentialVelocity[j] - tangentialVelocity[j - lag])/dt;
+
+            int i = offsets[j - history] + column;
+            features[i++] = xp[j];
+            features[i++] = yp[j];
+            features[i++] = speed[j];
+            features[i++] = speedX[j];
+            features[i++] = speedY[j];
+            features[i++] = speedChange[j];
+            features[i++] = speedChangeX[j];
+            features[i++] = speedChangeY[j];
+            features[i++] = Math.abs(speedChange[j]);
+            features[i++] = Math.abs(speedChangeX[j]);
+            features[i++] = Math.abs(speedChangeY[j]);
+            features[i++] = angle[j];
+            features[i++] = angleChange;
+            features[i++] = Math.abs(angleChange);
+            features[i++] = radialCoordinate[p][j];
+            features[i++] = angularCoordinate[p][j];
+            features[i++] = radialVelocity[j];
+            features[i++] = tangentialVelocity[j];
+            features[i++] = Math.abs(radialVelocity[j]);
+            features[i++] = Math.abs(tangentialVelocity[j]);
+            features[i++] = radialVelocityChange;
+            features[i++] = tangentialVelocityChange;
+            features[i++] = Math.abs(radialVelocityChange);
+            features[i++] = Math.abs(tangentialVelocityChange);
+
+            i = offsets[j - history] + jerkColumn;
+            features[i++] = jerk;
+            features[i++] = Math.abs(jerk);
+        }
+    }
+
+    /**
+     * Computes the ROTATION_FEATURES features of the rotation of the head
+     * around the center for a lag: the polar coordinates of the head
+     * relative to the center, their velocities and the changes of the
+     * velocities.
+     */
+    private void rotation(int lag, double[] features, int[] offsets, int column) {
+        polarVelocities(RELATIVE, lag);
+
+        for (int j = history; j < size; j++) {
+            double dt = timediff[j];
+            double radialVelocityChange = (radialVelocity[j] - radialVelocity[j - lag])/dt;
+            double tangentialVelocityChange = (tangentialVelocity[j] - tangentialVelocity[j - lag])/dt;
+
+            int i = offsets[j - history] + column;
+            features[i++] = radialCoordinate[RELATIVE][j];
+            features[i++] = angularCoordinate[RELATIVE][j];
+            features[i++] = radialVelocity[j];
+            features[i++] = tangentialVelocity[j];
+            features[i++] = Math.abs(radialVelocity[j]);
+            features[i++] = Math.abs(tangentialVelocity[j]);
+            features[i++] = radialVelocityChange;
+            features[i++] = Math.abs(radialVelocityChange);
+            features[i++] = tangentialVelocityChange;
+            features[i++] = Math.abs(tangentialVelocityChange);
+        }
+    }
+
+    /**
+     * Computes the velocities of the polar coordinates of a point for a lag
+     * from one lag before the segment on.
+     */
+    private void polarVelocities(int p, int lag) {
+        double[] radial = radialCoordinate[p];
+        double[] angular = angularCoordinate[p];
+        for (int j = history - lag; j < size; j++) {
+            radialVelocity[j] = (radial[j] - radial[j - lag])/timediff[j];
+            tangentialVelocity[j] = (angular[j] - angular[j - lag])/timediff[j];
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package org.knime.knip.leuven.nodes.features;
 
+import org.knime.core.data.DataValue;
+import org.knime.core.data.DoubleValue;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
-import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
-import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentString;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 /**
  * <code>NodeDialog</code> for the "MovementFeatures" Node.
@@ -22,8 +27,43 @@ public class MovementFeaturesNodeDialog extends DefaultNodeSettingsPane {
      * This is just a suggestion to demonstrate possible default dialog
      * components.
      */
+    @SuppressWarnings("unchecked")
     protected MovementFeaturesNodeDialog() {
         super();
+        
+        addDialogComponent(new DialogComponentString(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_LAGS,
+                    MovementFeaturesNodeModel.DEFAULT_LAGS),
+                    "Lags in frames (separated by commas):"));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_TIME_COLUMN, ""),
+                    "Time column:", 0, false, true, DoubleValue.class));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_P1_X_COLUMN, ""),
+                    "P1 X column:", 0, false, true, DoubleValue.class));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_P1_Y_COLUMN, ""),
+                    "P1 Y column:", 0, false, true, DoubleValue.class));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_P2_X_COLUMN, ""),
+                    "P2 X column:", 0, false, true, DoubleValue.class));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_P2_Y_COLUMN, ""),
+                    "P2 Y column:", 0, false, true, DoubleValue.class));
+        addDialogComponent(new DialogComponentColumnNameSelection(
+                new SettingsModelString(
+                    MovementFeaturesNodeModel.CFGKEY_ID_COLUMN, ""),
+                    "Id column:", 0, false, true, DataValue.class));
+        addDialogComponent(new DialogComponentBoolean(
+                new SettingsModelBoolean(
+                    MovementFeaturesNodeModel.CFGKEY_INCREMENTAL, false),
+                    "Only process rows added since the last execution"));
                     
     }
 }
@@ -2,14 +2,29 @@ package org.knime.knip.leuven.nodes.features;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.RowKey;
+import org.knime.core.data.DataType;
+import org.knime.core.data.DoubleValue;
+import org.knime.core.data.RowIterator;
+import org.knime.core.data.StringValue;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.node.BufferedDataContainer;
@@ -18,10 +33,13 @@ import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
-import org.knime.core.node.NodeLogger;
+import org.knime.core.node.KNIMEConstants;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.util.ThreadPool;
 
 
 /**
@@ -31,34 +49,296 @@ import org.knime.core.node.NodeSettingsWO;
  * @author Christopher Kintzel
  */
 public class MovementFeaturesNodeModel extends NodeModel {
-    
-    // the logger instance
-    private static final NodeLogger logger = NodeLogger
-            .getLogger(MovementFeaturesNodeModel.class);
-            
+
+    // input columns, indices into the resolved columns and the positions of
+    // the columns which have not been selected
+    private static final int HEAD_X_COL = 0;
+    private static final int HEAD_Y_COL = 1;
+    private static final int TAIL_X_COL = 2;
+    private static final int TAIL_Y_COL = 3;
+    private static final int ID_COL = 4;
+
+    // the input columns in messages
+    private static final String[] INPUT_COLUMN_LABELS = {"P1 X", "P1 Y", "P2 X", "P2 Y", "Id"};
+
+    // features per lag of the points (head, tail and center), of the
+    // rotation of the head around the center and the jerk of the points
+    private static final int LAG_FEATURES = 3 * Kinematics.POINT_FEATURES + Kinematics.ROTATION_FEATURES
+            + 3 * Kinematics.JERK_FEATURES;
+
+    // rows between two progress updates
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    // coordinates read per row (head x, y and tail x, y)
+    private static final int COORDINATES = 4;
+
+    // rows whose features are computed by one task
+    private static final int CHUNK_ROWS = 4096;
+
+    // rows read at once if the tracks are not interleaved
+    private static final int STREAM_BLOCK_ROWS = 16 * CHUNK_ROWS;
+
+    // share of the maximum memory of the JVM left to KNIME and other nodes
+    // when the memory needed by the rows is checked
+    private static final double MEMORY_RESERVE = 0.25;
+
+    // bytes kept per row by the frames: the coordinates and the time as
+    // doubles, the track, the frame within the track and the row of the
+    // frame as ints
+    private static final long BYTES_PER_ROW = (COORDINATES + 1) * 8 + 3 * 4;
+
+    // share of the first pass in the progress
+    private static final double GROUPING_PROGRESS = 0.2;
+
+    /** the settings key of the lags (package visibility to be usable from the dialog). */
+    static final String CFGKEY_LAGS = "Lags";
+
+    /** initial default lags value. */
+    static final String DEFAULT_LAGS = "1";
+
+    /** the settings key of the time column. */
+    static final String CFGKEY_TIME_COLUMN = "Time Column";
+
+    // lags in frames separated by commas, the features are computed for
+    // each of them
+    private final SettingsModelString m_lags =
+        new SettingsModelString(CFGKEY_LAGS, DEFAULT_LAGS);
+
+    // numeric column with the times of the frames, empty for one time unit
+    // per frame
+    private final SettingsModelString m_timeColumn =
+        new SettingsModelString(CFGKEY_TIME_COLUMN, "");
+
+    /** the settings key of the column of x of P1. */
+    static final String CFGKEY_P1_X_COLUMN = "P1 X Column";
+
+    /** the settings key of the column of y of P1. */
+    static final String CFGKEY_P1_Y_COLUMN = "P1 Y Column";
+
+    /** the settings key of the column of x of P2. */
+    static final String CFGKEY_P2_X_COLUMN = "P2 X Column";
+
+    /** the settings key of the column of y of P2. */
+    static final String CFGKEY_P2_Y_COLUMN = "P2 Y Column";
+
+    /** the settings key of the column of the track id. */
+    static final String CFGKEY_ID_COLUMN = "Id Column";
+
+    // columns of the coordinates of the points and of the track id in the
+    // order of HEAD_X_COL..ID_COL, empty for the column at that position
+    private final SettingsModelString[] m_inputColumns = {
+        new SettingsModelString(CFGKEY_P1_X_COLUMN, ""),
+        new SettingsModelString(CFGKEY_P1_Y_COLUMN, ""),
+        new SettingsModelString(CFGKEY_P2_X_COLUMN, ""),
+        new SettingsModelString(CFGKEY_P2_Y_COLUMN, ""),
+        new SettingsModelString(CFGKEY_ID_COLUMN, "")
+    };
+
+    /** the settings key of the incremental mode. */
+    static final String CFGKEY_INCREMENTAL = "Incremental";
+
+    // whether only the rows added since the last execution are processed
+    private final SettingsModelBoolean m_incremental =
+        new SettingsModelBoolean(CFGKEY_INCREMENTAL, false);
+
+    // the tails of the tracks after the last execution in the incremental
+    // mode, null if there are none
+    private TrackTails m_tails = null;
+
 
     /**
      * Constructor for the node model.
      */
     protected MovementFeaturesNodeModel() {
-    
-        // TODO one incoming port and one outgoing port is assumed
         super(1, 1);
     }
     
-    private static double euclideanDistance(double x1, double y1, double x2, double y2) {
-        double a = x1 - x2;
-        double b = y1 - y2;
-        return Math.sqrt(a * a + b * b);
+    /**
+     * Reads a coordinate, numeric cells directly and others from their string
+     * representation.
+     */
+    private static double getDouble(DataCell cell) {
+        if (cell instanceof DoubleValue) {
+            return ((DoubleValue)cell).getDoubleValue();
+        }
+        return Double.valueOf(cell.toString());
     }
-    
-    private static double angleXY(double x1, double y1, double x2, double y2, double x3, double y3){
-        double a = euclideanDistance(x2, y2, x3, y3);
-        double b = euclideanDistance(x1, y1, x3, y3);
-        double c = euclideanDistance(x1, y1, x2, y2);
-        double angle = Math.acos((a*a+ c*c - b*b)/(2*a*c));
-        //System.out.println(a+" "+b+" "+c+" "+angle+" \t"+x1+","+y1+" \t"+x2+","+y2+" \t"+x3+","+y3);
-        return angle;
+
+    /**
+     * Parses the lags, positive numbers of frames separated by commas.
+     *
+     * @return the distinct lags in ascending order
+     * @throws InvalidSettingsException if the lags can not be parsed
+     */
+    static int[] parseLags(String lags) throws InvalidSettingsException {
+        String[] values = lags.split(",");
+        int[] parsed = new int[values.length];
+        int numLags = 0;
+        for (String value : values) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                parsed[numLags] = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                parsed[numLags] = 0;
+            }
+            if (parsed[numLags] <= 0) {
+                throw new InvalidSettingsException("Lag '" + value.trim() + "' is not a positive number of frames.");
+            }
+            numLags++;
+        }
+        if (numLags == 0) {
+            throw new InvalidSettingsException("No lags have been specified.");
+        }
+        parsed = Arrays.copyOf(parsed, numLags);
+        Arrays.sort(parsed);
+        numLags = 1;
+        for (int i = 1; i < parsed.length; i++) {
+            if (parsed[i] != parsed[numLags - 1]) {
+                parsed[numLags++] = parsed[i];
+            }
+        }
+        return Arrays.copyOf(parsed, numLags);
+    }
+
+    /**
+     * Resolves the time column.
+     *
+     * @return its index, -1 if no time column has been selected
+     * @throws InvalidSettingsException if the column is not available
+     */
+    private int getTimeColumnIndex(DataTableSpec inSpec) throws InvalidSettingsException {
+        String name = m_timeColumn.getStringValue();
+        if (name == null || name.isEmpty()) {
+            return -1;
+        }
+        int idx = inSpec.findColumnIndex(name);
+        if (idx < 0 || !inSpec.getColumnSpec(idx).getType().isCompatible(DoubleValue.class)) {
+            throw new InvalidSettingsException("Numeric time column '" + name + "' is not available.");
+        }
+        return idx;
+    }
+
+    /**
+     * Resolves the columns of the coordinates of P1 and P2 and of the track
+     * id. A column which has not been selected is the column at its position
+     * among the first five columns, as in workflows built before the columns
+     * could be selected, whose coordinates may also be read from strings.
+     *
+     * @return the indices of the columns in the order of HEAD_X_COL..ID_COL
+     * @throws InvalidSettingsException if a column is not available
+     */
+    private int[] getInputColumnIndices(DataTableSpec inSpec) throws InvalidSettingsException {
+        int[] indices = new int[m_inputColumns.length];
+        for (int i = 0; i < indices.length; i++) {
+            String label = INPUT_COLUMN_LABELS[i];
+            String name = m_inputColumns[i].getStringValue();
+            if (name == null || name.isEmpty()) {
+                if (i >= inSpec.getNumColumns()) {
+                    throw new InvalidSettingsException("No " + label + " column has been selected and the input has no column #"
+                            + (i + 1) + ".");
+                }
+                DataType type = inSpec.getColumnSpec(i).getType();
+                if (i != ID_COL && !type.isCompatible(DoubleValue.class) && !type.isCompatible(StringValue.class)) {
+                    throw new InvalidSettingsException("No " + label + " column has been selected and column #" + (i + 1)
+                            + " is neither numeric nor a string.");
+                }
+                indices[i] = i;
+            } else {
+                indices[i] = inSpec.findColumnIndex(name);
+                if (indices[i] < 0
+                        || i != ID_COL && !inSpec.getColumnSpec(indices[i]).getType().isCompatible(DoubleValue.class)) {
+                    throw new InvalidSettingsException((i == ID_COL ? "" : "Numeric ") + label + " column '" + name
+                            + "' is not available.");
+                }
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return the names of the input columns and of the time column, the
+     *         incremental mode only continues from tails computed with the
+     *         same columns
+     */
+    private static String getColumnNames(DataTableSpec inSpec, int[] inputColumns, int timeColumn) {
+        String[] names = new String[inputColumns.length + 1];
+        for (int i = 0; i < inputColumns.length; i++) {
+            names[i] = inSpec.getColumnSpec(inputColumns[i]).getName();
+        }
+        names[inputColumns.length] = timeColumn < 0 ? "" : inSpec.getColumnSpec(timeColumn).getName();
+        return Arrays.toString(names);
+    }
+
+    /**
+     * Creates the spec of the output, the input columns followed by the
+     * features of the lags. The features of lag 1 keep their names, the
+     * names of the others end with the lag.
+     */
+    private static DataTableSpec createOutSpec(DataTableSpec inSpec, int[] lags) {
+        int numColumns = inSpec.getNumColumns();
+        DataColumnSpec[] allColSpecs = new DataColumnSpec[numColumns + 1 + lags.length * LAG_FEATURES];
+        
+        for (int i = 0; i < numColumns; i++) {
+            allColSpecs[i] = inSpec.getColumnSpec(i);
+        }
+        int columnCounter = numColumns;
+
+        String[] points = {"P1", "P2", "C"};
+        for (int l = 0; l < lags.length; l++) {
+            String lag = lags[l] == 1 ? "" : " (Lag " + lags[l] + ")";
+            for (String string : points) { // 3*24
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" X"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Y"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed X"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Y"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change X"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Y"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute X"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute Y"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle Change"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Coordinate"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angular Coordinate"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Absolute"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Absolute"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Change"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Change"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+            }
+
+            if (l == 0) {
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator("P1-P2-Distance", DoubleCell.TYPE).createSpec();
+            }
+
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Coordinate"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Angular Coordinate"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity / P1-P2-Distance Change"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity / Internal Rotation"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Absolute / P1-P2-Distance Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Absolute / Internal Rotation Absolute"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Change / P1-P2-Distance Acceleration"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Change / Internal Rotation Change"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Change Absolute/ P1-P2-Distance Acceleration Absolute"+lag, DoubleCell.TYPE).createSpec();
+            allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Change Absolute / Internal Rotation Change Absolute"+lag, DoubleCell.TYPE).createSpec();
+
+            // the jerk has been added later, it follows the other features of
+            // the lag to keep their columns
+            for (String string : points) { // 3*2
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Jerk"+lag, DoubleCell.TYPE).createSpec();
+                allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Jerk Absolute"+lag, DoubleCell.TYPE).createSpec();
+            }
+        }
+
+        return new DataTableSpec(allColSpecs);
     }
 
     /**
@@ -68,250 +348,561 @@ public class MovementFeaturesNodeModel extends NodeModel {
     protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
             final ExecutionContext exec) throws Exception {
 
-        // TODO do something here
-        logger.info("Node Model Stub... this is not yet implemented !");
-        
         BufferedDataTable table = inData[0];
-        int numColumns = table.getDataTableSpec().getNumColumns();
-        
-        
-        DataColumnSpec[] allColSpecs = new DataColumnSpec[83 + numColumns];
-        
-        for (int i = 0; i < numColumns; i++) {
-        	allColSpecs[i] = table.getDataTableSpec().getColumnSpec(i);
-		}
-        int columnCounter = numColumns;
-        
-        String[] points = {"P1", "P2", "C"};
-        for (String string : points) { // 3*24
-        	allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" X", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Y", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed X", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Y", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change X", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Y", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute X", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Speed Change Absolute Y", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle Change", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angle Change Absolute", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Coordinate", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Angular Coordinate", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Absolute", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Absolute", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Change", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Change", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Radial Velocity Change Absolute", DoubleCell.TYPE).createSpec();
-            allColSpecs[columnCounter++] = new DataColumnSpecCreator(string+" Tangential Velocity Change Absolute", DoubleCell.TYPE).createSpec();
-		}
-        
-        
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("P1-P2-Distance", DoubleCell.TYPE).createSpec();
-        
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Coordinate", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Angular Coordinate", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity / P1-P2-Distance Change", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity / Internal Rotation", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Absolute / P1-P2-Distance Change Absolute", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Absolute / Internal Rotation Absolute", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Change / P1-P2-Distance Acceleration", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Change / Internal Rotation Change", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Radial Velocity Change Absolute/ P1-P2-Distance Acceleration Absolute", DoubleCell.TYPE).createSpec();
-        allColSpecs[columnCounter++] = new DataColumnSpecCreator("Movement Direction Tangential Velocity Change Absolute / Internal Rotation Change Absolute", DoubleCell.TYPE).createSpec();
-        
-        
-        
-        DataTableSpec outputSpec = new DataTableSpec(allColSpecs);
-        BufferedDataContainer container = exec.createDataContainer(outputSpec);
-        
-        
+        DataTableSpec inSpec = table.getDataTableSpec();
+        int numColumns = inSpec.getNumColumns();
+        final int[] lags = parseLags(m_lags.getStringValue());
+        int[] inputColumns = getInputColumnIndices(inSpec);
+        int timeColumn = getTimeColumnIndex(inSpec);
+        final int numFeatures = 1 + lags.length * LAG_FEATURES;
         
-        LinkedList<Double[]> prevQueue = new LinkedList<>(); // 0 = prev3, 1 = prev2, 2 = prev
+        DataTableSpec outputSpec = createOutSpec(inSpec, lags);
+        final int numWorkers = Runtime.getRuntime().availableProcessors();
+        // the workers computing the features of chunks of rows are taken
+        // from the global KNIME pool
+        final ThreadPool workers = KNIMEConstants.GLOBAL_THREAD_POOL.createSubPool(numWorkers);
+        try {
+            if (!m_incremental.getBooleanValue()) {
+                // tables whose tracks are not interleaved are streamed,
+                // otherwise the rows written so far are discarded
+                BufferedDataContainer container = exec.createDataContainer(outputSpec);
+                boolean grouped = streamTracks(table, lags, inputColumns, timeColumn, workers, container, exec);
+                container.close();
+                if (grouped) {
+                    m_tails = null;
+                    return new BufferedDataTable[]{container.getTable()};
+                }
+                exec.clearTable(container.getTable());
+            }
+
+            // first pass: coordinates and times of all rows and, instead of
+            // sorting by the id (e.g. id, wellPosition, ...), the track and
+            // the frame within the track of every row. In the incremental
+            // mode the rows processed before are only checked, their tracks
+            // continue from the tails of the last execution, and the rows
+            // added since are copied so that they are not skipped again.
+            String columnNames = getColumnNames(inSpec, inputColumns, timeColumn);
+            TrackTails tails = m_incremental.getBooleanValue() ? m_tails : null;
+            if (tails != null && !tails.matches(Arrays.toString(lags), columnNames)) {
+                tails = null;
+            }
+            long bufferedBytes = 2L * numWorkers * CHUNK_ROWS * numFeatures * 8;
+            ExecutionMonitor readProgress = exec.createSubProgress(GROUPING_PROGRESS);
+            BufferedDataContainer addedRows = tails != null && tails.getNumRows() > 0
+                    ? exec.createDataContainer(inSpec)
+                    : null;
+            Frames frames = readFrames(table, lags, inputColumns, timeColumn, tails, addedRows, bufferedBytes,
+                    readProgress);
+            BufferedDataTable added = null;
+            if (addedRows != null) {
+                addedRows.close();
+                added = addedRows.getTable();
+            }
+            if (frames == null) {
+                setWarningMessage("The rows processed by the last execution have changed, all rows are processed.");
+                if (added != null) {
+                    exec.clearTable(added);
+                    added = null;
+                }
+                tails = null;
+                frames = readFrames(table, lags, inputColumns, timeColumn, null, null, bufferedBytes, readProgress);
+            }
+
+            // second pass: the features are written in input order
+            BufferedDataContainer container = exec.createDataContainer(outputSpec);
+            RowIterator rows = added == null ? table.iterator() : added.iterator();
+            writeFeatures(frames, rows, numColumns, workers, container, exec.createSubProgress(1 - GROUPING_PROGRESS));
+            if (added != null) {
+                exec.clearTable(added);
+            }
+
+            m_tails = m_incremental.getBooleanValue()
+                    ? createTails(frames, tails, Arrays.toString(lags), columnNames)
+                    : null;
+
+            // once we are done, we close the container and return its table
+            container.close();
+            BufferedDataTable out = container.getTable();
+            return new BufferedDataTable[]{out};
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Computes the features of a table whose tracks are not interleaved, i.e.
+     * the rows of every track follow each other, in blocks of
+     * STREAM_BLOCK_ROWS rows. The track of the last row of a block continues
+     * in the next block from its tail, hence only the rows of one block and
+     * the ids of the finished tracks are kept.
+     *
+     * @return <code>false</code> if the tracks are interleaved, the rows
+     *         written to the container are incomplete then
+     */
+    private static boolean streamTracks(BufferedDataTable table, int[] lags, int[] inputColumns, int timeColumn,
+            ThreadPool workers, BufferedDataContainer container, ExecutionContext exec) throws Exception {
+        int rowCount = table.getRowCount();
+        int numColumns = table.getDataTableSpec().getNumColumns();
+        Set<DataCell> finished = new HashSet<DataCell>();
+        DataCell current = null;
+        TrackTails tails = null;
+        List<DataRow> block = new ArrayList<DataRow>(STREAM_BLOCK_ROWS);
         int counter = 0;
-        String lastId = "";
-        for (DataRow dataRow : table) {
-        	double xHead = Double.valueOf(dataRow.getCell(0).toString());
-        	double yHead = Double.valueOf(dataRow.getCell(1).toString());
-        	double xTail = Double.valueOf(dataRow.getCell(2).toString());
-        	double yTail = Double.valueOf(dataRow.getCell(3).toString());
-        	
-        	String id = dataRow.getCell(4).toString(); // must be sorted by column #5 (id, wellPosition, ...)
-        	if(!id.equals(lastId)){
-        		lastId = id;
-                prevQueue.clear();
-                Double[] prev = {0.0,0.0,0.0,0.0,0.0,0.0};
-            	prevQueue.offer(prev);
-            	prevQueue.offer(prev);
-            	prevQueue.offer(prev);
-        	}
-        	
-        	
-        	double xCenter = (xHead+xTail)/2;
-        	double yCenter = (yHead+yTail)/2;
-        	
-        	double[] fv1 = getFVFromPoint(xHead, 	yHead, 	 prevQueue.get(2)[0], prevQueue.get(2)[1], prevQueue.get(1)[0], prevQueue.get(1)[1], prevQueue.get(0)[0], prevQueue.get(0)[1]);
-        	double[] fv2 = getFVFromPoint(xTail, 	yTail, 	 prevQueue.get(2)[2], prevQueue.get(2)[3], prevQueue.get(1)[2], prevQueue.get(1)[3], prevQueue.get(0)[2], prevQueue.get(0)[3]);
-        	double[] fv3 = getFVFromPoint(xCenter, yCenter,  prevQueue.get(2)[4], prevQueue.get(2)[5], prevQueue.get(1)[4], prevQueue.get(1)[5], prevQueue.get(0)[4], prevQueue.get(0)[5]);
-        	double htDistance = euclideanDistance(xHead, yHead, xTail, yTail);
-        	
-        	RowKey key = dataRow.getKey();// new RowKey("Row " + i);
-            // the cells of the current row, the types of the cells must match
-            // the column spec (see above)
-        	DataCell[] cells = new DataCell[83 + numColumns];
-        	
-        	for (int i = 0; i < numColumns; i++) {
-        		cells[i] = dataRow.getCell(i);
-    		}
-        	
-        	columnCounter = numColumns;
-        	for (int i = 0; i < fv1.length; i++) {
-				cells[columnCounter++] = new DoubleCell(fv1[i]);
-			}
-        	for (int i = 0; i < fv2.length; i++) {
-				cells[columnCounter++] = new DoubleCell(fv2[i]);
-			}
-        	for (int i = 0; i < fv3.length; i++) {
-				cells[columnCounter++] = new DoubleCell(fv3[i]);
-			}
-            
-            cells[columnCounter++] = new DoubleCell(htDistance); 
-            
-            // internal rotation
-            double timediff = 1.0/1.0;
-            	double x = xHead - xCenter;
-            	double y = yHead - yCenter;
-        		double prevX = prevQueue.get(2)[0] - prevQueue.get(2)[4];
-        		double prevY = prevQueue.get(2)[1] - prevQueue.get(2)[5];
-    			double prevX2 = prevQueue.get(1)[0] - prevQueue.get(1)[4];
-        		double prevY2 = prevQueue.get(1)[1] - prevQueue.get(1)[5];
-        	double radialCoordinate = Math.sqrt(x*x + y*y);
-        	double angularCoordinate = Math.atan2(x, y);
-        		double prevRadialCoordinate = Math.sqrt(prevX*prevX + prevY*prevY);
-        		double prevAngularCoordinate = Math.atan2(prevX, prevY);
-        		double prevRadialCoordinate2 = Math.sqrt(prevX2*prevX2 + prevY2*prevY2);
-        		double prevAngularCoordinate2 = Math.atan2(prevX2, prevY2);
-        	double radialVelocity = (radialCoordinate - prevRadialCoordinate)/timediff;
-            double tangentialVelocity = (angularCoordinate - prevAngularCoordinate)/timediff;
-            double absoluteRadialVelocity = Math.abs(radialVelocity);
-            double absoluteTangentialVelocity = Math.abs(tangentialVelocity);
-            	
-            	double prevRadialVelocity = (prevRadialCoordinate - prevRadialCoordinate2)/timediff;
-            	double prevTangentialVelocity = (prevAngularCoordinate - prevAngularCoordinate2)/timediff;
-            
-            double radialVelocityChange = radialVelocity - prevRadialVelocity;
-            double absoluteRadialVeolictyChange = Math.abs(radialVelocityChange);
-            double tangentialVelocityChange = tangentialVelocity - prevTangentialVelocity;
-            double absoluteTangentialVelocityChange = Math.abs(tangentialVelocityChange);
-            
-            
-            cells[columnCounter++] = new DoubleCell(radialCoordinate);
-            cells[columnCounter++] = new DoubleCell(angularCoordinate);
-            cells[columnCounter++] = new DoubleCell(radialVelocity);
-            cells[columnCounter++] = new DoubleCell(tangentialVelocity);
-            cells[columnCounter++] = new DoubleCell(absoluteRadialVelocity);
-            cells[columnCounter++] = new DoubleCell(absoluteTangentialVelocity);
-            cells[columnCounter++] = new DoubleCell(radialVelocityChange);
-            cells[columnCounter++] = new DoubleCell(absoluteRadialVeolictyChange);
-            cells[columnCounter++] = new DoubleCell(tangentialVelocityChange);
-            cells[columnCounter++] = new DoubleCell(absoluteTangentialVelocityChange);
-
-            DataRow row = new DefaultRow(key, cells);
-            container.addRowToTable(row);
-            
-            // check if the execution monitor was canceled
-            exec.checkCanceled();
-            exec.setProgress(counter / (double)table.getRowCount(), "Adding row " + counter);
-        	
-            Double[] prev = new Double[6];
-        	prev[0] = xHead;
-        	prev[1] = yHead;
-        	prev[2] = xTail;
-        	prev[3] = yTail;
-        	prev[4] = xCenter;
-        	prev[5] = yCenter;
-        	prevQueue.offer(prev);
-        	if(prevQueue.size() > 3) prevQueue.poll();
-        	
-        	counter++;
-		}
+        RowIterator rows = table.iterator();
+        while (rows.hasNext()) {
+            DataRow dataRow = rows.next();
+            DataCell id = dataRow.getCell(inputColumns[ID_COL]);
+            if (!id.equals(current)) {
+                if (current != null) {
+                    finished.add(current);
+                }
+                if (finished.contains(id)) {
+                    return false;
+                }
+                current = id;
+            }
+            block.add(dataRow);
 
+            if (block.size() == STREAM_BLOCK_ROWS || !rows.hasNext()) {
+                Frames frames = readFrames(block.iterator(), 0, block.size(), lags, inputColumns, timeColumn, tails,
+                        null, exec.createSilentSubProgress(0));
+                writeFeatures(frames, block.iterator(), numColumns, workers, container,
+                        exec.createSilentSubProgress(0));
+                tails = createTails(frames, null, "", "");
+                counter += block.size();
+                block.clear();
+                exec.checkCanceled();
+                exec.setProgress((double)counter / rowCount, "Adding row " + counter);
+            }
+        }
+        return true;
+    }
 
-        
-        // once we are done, we close the container and return its table
-        container.close();
-        BufferedDataTable out = container.getTable();
-        return new BufferedDataTable[]{out};
+    /**
+     * Computes the features of the rows of frames, chunk by chunk in
+     * parallel, as every row only depends on the previous rows of its track,
+     * and writes the rows with their features in input order.
+     *
+     * @param rows the rows of the frames
+     */
+    private static void writeFeatures(Frames frames, Iterator<DataRow> rows, int numColumns, ThreadPool workers,
+            BufferedDataContainer container, ExecutionMonitor exec) throws Exception {
+        int rowCount = frames.rowCount;
+        int numFeatures = frames.numFeatures;
+        int numChunks = (rowCount + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        int numWorkers = Runtime.getRuntime().availableProcessors();
+        Queue<Future<double[]>> pending = new ArrayDeque<Future<double[]>>();
+        try {
+            int submitted = 0;
+            while (submitted < numChunks && submitted < 2 * numWorkers) {
+                pending.add(submitChunk(workers, submitted++, frames));
+            }
+
+            DataCell[] cells = new DataCell[numFeatures + numColumns];
+            int counter = 0;
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                double[] features = waitFor(workers, pending.poll());
+                if (submitted < numChunks) {
+                    pending.add(submitChunk(workers, submitted++, frames));
+                }
+
+                int chunkRows = Math.min(CHUNK_ROWS, rowCount - chunk * CHUNK_ROWS);
+                for (int r = 0; r < chunkRows; r++) {
+                    DataRow dataRow = rows.next();
+                    // the cells of the current row, the types of the cells
+                    // must match the column spec (see above). DefaultRow
+                    // copies the array, hence it is reused for the next row.
+                    for (int i = 0; i < numColumns; i++) {
+                        cells[i] = dataRow.getCell(i);
+                    }
+                    for (int i = 0; i < numFeatures; i++) {
+                        cells[numColumns + i] = new DoubleCell(features[r * numFeatures + i]);
+                    }
+                    container.addRowToTable(new DefaultRow(dataRow.getKey(), cells));
+                }
+
+                // check if the execution monitor was canceled
+                counter += chunkRows;
+                exec.checkCanceled();
+                exec.setProgress((double)counter / rowCount, "Adding row " + counter);
+            }
+        } finally {
+            for (Future<double[]> future : pending) {
+                future.cancel(true);
+            }
+        }
     }
-    
-    
-    private double[] getFVFromPoint(double x, double y, double prevX, double prevY, double prevX2, double prevY2, double prevX3, double prevY3){
-    	double timediff = 1.0/1.0;
-    	double speed = euclideanDistance(x, y, prevX, prevY)/timediff;
-    	double speedX = euclideanDistance(x, 0, prevX, 0)/timediff;
-    	double speedY = euclideanDistance(0, y, 0, prevY)/timediff;
-    	
-    	double prevSpeed = euclideanDistance(prevX, prevY, prevX2, prevY2)/timediff;
-    	double prevSpeedX = euclideanDistance(prevX, 0, prevX2, 0)/timediff;
-    	double prevSpeedY = euclideanDistance(0, prevY, 0, prevY2)/timediff;
-    	
-    	double speedChange = speed - prevSpeed;
-    	double speedChangeX = speedX - prevSpeedX;
-    	double speedChangeY = speedY - prevSpeedY;
-    	
-    	double speedChangeAbsolute = Math.abs(speedChange);
-    	double speedChangeAbsoluteX = Math.abs(speedChangeX);
-    	double speedChangeAbsoluteY = Math.abs(speedChangeY);
-    	
-    	
-    	double angle = angleXY(x, y, prevX, prevY, prevX2, prevY2);
-    	double prevAngle = angleXY(prevX, prevY, prevX2, prevY2, prevX3, prevY3);
-    	
-    	double angleChange = angle - prevAngle;
-    	double angleChangeAbsolute = Math.abs(angleChange);
-    	
-    	
-    	//polar coordinates
-    	double radialCoordinate = Math.sqrt(x*x + y*y);
-    	double angularCoordinate = Math.atan2(x, y);
-    		double prevRadialCoordinate = Math.sqrt(prevX*prevX + prevY*prevY);
-    		double prevAngularCoordinate = Math.atan2(prevX, prevY);
-    		double prevRadialCoordinate2 = Math.sqrt(prevX2*prevX2 + prevY2*prevY2);
-    		double prevAngularCoordinate2 = Math.atan2(prevX2, prevY2);
-    	
-    	double radialVelocity = (radialCoordinate - prevRadialCoordinate)/timediff;
-    	double tangentialVelocity = (angularCoordinate - prevAngularCoordinate)/timediff;
-    	double absoluteRadialVelocity = Math.abs(radialVelocity);
-    	double absoluteTangentialVelocity = Math.abs(tangentialVelocity);
-    	
-    		double prevRadialVelocity = (prevRadialCoordinate - prevRadialCoordinate2)/timediff;
-    		double prevTangentialVelocity = (prevAngularCoordinate - prevAngularCoordinate2)/timediff;
-    	
-    	double radialVelocityChange = radialVelocity - prevRadialVelocity;
-    	double absoluteRadialVeolictyChange = Math.abs(radialVelocityChange);
-    	double tangentialVelocityChange = tangentialVelocity - prevTangentialVelocity;
-    	double absoluteTangentialVelocityChange = Math.abs(tangentialVelocityChange);
-    	//System.out.println(x+" "+y+" "+pcR+" "+pcA);
-    	
-    	
-    	
-    	double[] fv = {
-    			x,y,
-    			speed,speedX,speedY,
-    			speedChange,speedChangeX,speedChangeY,
-    			speedChangeAbsolute,speedChangeAbsoluteX,speedChangeAbsoluteY,
-    			angle,angleChange,angleChangeAbsolute,
-    			radialCoordinate, angularCoordinate,
-    			radialVelocity, tangentialVelocity, absoluteRadialVelocity, absoluteTangentialVelocity,
-    			radialVelocityChange, tangentialVelocityChange, absoluteRadialVeolictyChange, absoluteTangentialVelocityChange
-    			};
-    	return fv;
+
+    /**
+     * Reads the coordinates and times of the rows of a table.
+     *
+     * @param inputColumns indices of the coordinates and of the track id in
+     *            the order of HEAD_X_COL..ID_COL
+     * @param timeColumn index of the time column, -1 for one time unit per
+     *            frame
+     * @param tails the tails of the tracks after the rows processed before,
+     *            <code>null</code> to read all rows
+     * @param copy receives the rows after the rows processed before, may be
+     *            <code>null</code>
+     * @param bufferedBytes memory needed besides the frames, see
+     *            {@link #checkMemory}
+     * @return the frames of the rows after the rows processed before and of
+     *         the tails of their tracks, <code>null</code> if the rows
+     *         processed before have changed
+     */
+    private static Frames readFrames(BufferedDataTable table, int[] lags, int[] inputColumns, int timeColumn,
+            TrackTails tails, BufferedDataContainer copy, long bufferedBytes, ExecutionMonitor exec)
+            throws CanceledExecutionException {
+        int skippedRows = tails == null ? 0 : tails.getNumRows();
+        if (skippedRows > table.getRowCount()) {
+            return null;
+        }
+        int rowCount = table.getRowCount() - skippedRows;
+        checkMemory(rowCount + (tails == null ? 0 : tails.getNumFrames()), bufferedBytes);
+        // the rows processed before are unchanged if their hash is, which
+        // takes reading and decoding them once
+        RowIterator rows = table.iterator();
+        long hash = 0;
+        for (int counter = 0; counter < skippedRows; counter++) {
+            DataRow dataRow = rows.next();
+            hash = hashRow(hash, dataRow, dataRow.getCell(inputColumns[ID_COL]),
+                    getDouble(dataRow.getCell(inputColumns[HEAD_X_COL])),
+                    getDouble(dataRow.getCell(inputColumns[HEAD_Y_COL])),
+                    getDouble(dataRow.getCell(inputColumns[TAIL_X_COL])),
+                    getDouble(dataRow.getCell(inputColumns[TAIL_Y_COL])),
+                    timeColumn < 0 ? 0 : getDouble(dataRow.getCell(timeColumn)));
+            if ((counter + 1) % PROGRESS_INTERVAL == 0) {
+                exec.checkCanceled();
+            }
+        }
+        if (tails != null && hash != tails.getRowsHash()) {
+            return null;
+        }
+        return readFrames(rows, skippedRows, rowCount, lags, inputColumns, timeColumn, tails, copy, exec);
+    }
+
+    /**
+     * Continues a hash of rows with a row, its key, its track id and the
+     * values read from it.
+     *
+     * @param time the time, 0 if there is no time column
+     */
+    private static long hashRow(long hash, DataRow row, DataCell id, double p1X, double p1Y, double p2X,
+            double p2Y, double time) {
+        hash = hash(hash, row.getKey().getString().hashCode());
+        hash = hash(hash, id.toString().hashCode());
+        hash = hash(hash, Double.doubleToLongBits(p1X));
+        hash = hash(hash, Double.doubleToLongBits(p1Y));
+        hash = hash(hash, Double.doubleToLongBits(p2X));
+        hash = hash(hash, Double.doubleToLongBits(p2Y));
+        return hash(hash, Double.doubleToLongBits(time));
+    }
+
+    private static long hash(long hash, long value) {
+        long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Reads the coordinates and times of rows.
+     *
+     * @param rows the rows, the rows processed before have been skipped
+     * @param skippedRows number of rows processed before
+     * @param rowCount number of rows to read
+     * @param tails the tails of the tracks before the rows, may be
+     *            <code>null</code>
+     * @param copy receives the rows, may be <code>null</code>
+     * @return the frames of the rows and of the tails of their tracks
+     */
+    private static Frames readFrames(Iterator<DataRow> rows, int skippedRows, int rowCount, int[] lags,
+            int[] inputColumns, int timeColumn, TrackTails tails, BufferedDataContainer copy, ExecutionMonitor exec)
+            throws CanceledExecutionException {
+        Frames frames = new Frames(lags, skippedRows, rowCount, tails == null ? 0 : tails.getNumFrames());
+        frames.rowsHash = tails == null ? 0 : tails.getRowsHash();
+        Map<DataCell, Track> tracks = new HashMap<DataCell, Track>();
+        for (int row = 0; row < rowCount; row++) {
+            DataRow dataRow = rows.next();
+            DataCell id = dataRow.getCell(inputColumns[ID_COL]);
+            Track track = tracks.get(id);
+            if (track == null) {
+                track = new Track(tracks.size());
+                tracks.put(id, track);
+                frames.trackIds.add(id);
+                TrackTails.Tail tail = tails == null ? null : tails.get(id.toString());
+                if (tail != null) {
+                    track.length = tail.length;
+                    for (int f = 0; f < tail.getNumFrames(); f++) {
+                        frames.addTailFrame(tail.frames, f * TrackTails.FRAME_VALUES, track.index, track.stored++);
+                    }
+                }
+            }
+
+            int c = row * COORDINATES;
+            frames.coordinates[c] = getDouble(dataRow.getCell(inputColumns[HEAD_X_COL]));
+            frames.coordinates[c + 1] = getDouble(dataRow.getCell(inputColumns[HEAD_Y_COL]));
+            frames.coordinates[c + 2] = getDouble(dataRow.getCell(inputColumns[TAIL_X_COL]));
+            frames.coordinates[c + 3] = getDouble(dataRow.getCell(inputColumns[TAIL_Y_COL]));
+            frames.times[row] = timeColumn < 0 ? track.length : getDouble(dataRow.getCell(timeColumn));
+            frames.trackOf[row] = track.index;
+            frames.frameOf[row] = track.stored++;
+            track.length++;
+            frames.rowsHash = hashRow(frames.rowsHash, dataRow, id, frames.coordinates[c], frames.coordinates[c + 1],
+                    frames.coordinates[c + 2], frames.coordinates[c + 3], timeColumn < 0 ? 0 : frames.times[row]);
+            if (copy != null) {
+                copy.addRowToTable(dataRow);
+            }
+
+            if ((row + 1) % PROGRESS_INTERVAL == 0) {
+                exec.checkCanceled();
+                exec.setProgress((double)(row + 1) / rowCount, "Reading row " + (row + 1));
+            }
+        }
+        int[] storedFrames = new int[tracks.size()];
+        frames.trackLengths = new int[tracks.size()];
+        for (Track track : tracks.values()) {
+            storedFrames[track.index] = track.stored;
+            frames.trackLengths[track.index] = track.length;
+        }
+        frames.orderByTrack(storedFrames);
+        return frames;
+    }
+
+    /**
+     * Fails before the rows are read if they will not fit into the maximum
+     * memory of the JVM less MEMORY_RESERVE of it. The memory in use is not
+     * considered as it includes garbage. The frames keep BYTES_PER_ROW bytes
+     * per row, the map of the tracks grows with the number of tracks and is
+     * not known in advance.
+     *
+     * @param numRows number of rows and frames of tails to keep
+     * @param bufferedBytes memory needed besides the frames, i.e. for the
+     *            features of the chunks in flight
+     */
+    private static void checkMemory(long numRows, long bufferedBytes) {
+        long required = numRows * BYTES_PER_ROW + bufferedBytes;
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long available = maxMemory - (long)(maxMemory * MEMORY_RESERVE);
+        if (required > available) {
+            throw new IllegalStateException("The features of " + numRows + " rows need about "
+                    + (required >> 20) + " MB of memory, only " + (available >> 20)
+                    + " MB are available. Increase the maximum memory of KNIME (-Xmx in knime.ini).");
+        }
+    }
+
+    /**
+     * Creates the tails of the tracks after the rows of an execution, the
+     * last HISTORY times the largest lag frames of every track.
+     *
+     * @param frames the frames of the execution
+     * @param previous the tails the execution started from, may be
+     *            <code>null</code>
+     */
+    private static TrackTails createTails(Frames frames, TrackTails previous, String lags, String columns) {
+        int history = Kinematics.HISTORY * frames.lags[frames.lags.length - 1];
+        Map<String, TrackTails.Tail> tails = previous == null
+                ? new HashMap<String, TrackTails.Tail>()
+                : new HashMap<String, TrackTails.Tail>(previous.getTails());
+        for (int track = 0; track < frames.trackIds.size(); track++) {
+            int start = frames.trackStarts[track];
+            int end = frames.trackStarts[track + 1];
+            int first = Math.max(start, end - history);
+            double[] values = new double[(end - first) * TrackTails.FRAME_VALUES];
+            int v = 0;
+            for (int f = first; f < end; f++) {
+                int row = frames.rowsByTrack[f];
+                int c = row * COORDINATES;
+                values[v++] = frames.coordinates[c];
+                values[v++] = frames.coordinates[c + 1];
+                values[v++] = frames.coordinates[c + 2];
+                values[v++] = frames.coordinates[c + 3];
+                values[v++] = frames.times[row];
+            }
+            tails.put(frames.trackIds.get(track).toString(), new TrackTails.Tail(frames.trackLengths[track], values));
+        }
+        return new TrackTails(lags, columns, frames.skippedRows + frames.rowCount, frames.rowsHash, tails);
+    }
+
+    /**
+     * Submits the computation of the features of a chunk of rows.
+     *
+     * @return the features of the rows one after the other
+     */
+    private static Future<double[]> submitChunk(ThreadPool workers, final int chunk, final Frames frames) {
+        return workers.enqueue(new Callable<double[]>() {
+            @Override
+            public double[] call() {
+                int first = chunk * CHUNK_ROWS;
+                int last = Math.min(frames.rowCount, first + CHUNK_ROWS);
+                double[] features = new double[(last - first) * frames.numFeatures];
+                frames.computeFeatures(first, last, new Kinematics(frames.lags), features);
+                return features;
+            }
+        });
+    }
+
+    /**
+     * Waits for the features of a chunk. The executing thread belongs to the
+     * global pool, hence it must not count as one of its threads while it
+     * waits for the workers.
+     */
+    private static double[] waitFor(ThreadPool workers, final Future<double[]> future) throws Exception {
+        try {
+            return workers.runInvisible(new Callable<double[]>() {
+                @Override
+                public double[] call() throws Exception {
+                    return future.get();
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e;
+            while (cause instanceof ExecutionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Index and length of a track.
+     */
+    private static final class Track {
+        final int index;
+        // number of rows of the track so far, including the rows of
+        // previous executions in the incremental mode
+        int length;
+        // number of frames of the track in the frames
+        int stored;
+
+        Track(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Coordinates and times of all rows and their positions in their tracks,
+     * per row 4 coordinates, the time, the track and the frame within the
+     * track and the row of the frame of the track. In the incremental mode
+     * the frames of the tails of the tracks follow the rows of the table.
+     */
+    private static final class Frames {
+        final int[] lags;
+        // rows of the table processed before and rows to process
+        final int skippedRows;
+        final int rowCount;
+        final int numFeatures;
+        final double[] coordinates;
+        final double[] times;
+        final int[] trackOf;
+        final int[] frameOf;
+        // rows of the frames one track after the other, the rows of a track
+        // start at trackStarts[track]
+        final int[] rowsByTrack;
+        int[] trackStarts;
+        // number of rows and frames of the tails
+        int numRows;
+        // ids and numbers of rows of the tracks
+        final List<DataCell> trackIds = new ArrayList<DataCell>();
+        int[] trackLengths;
+        // hash of the rows of the table up to the last row read
+        long rowsHash;
+
+        Frames(int[] lags, int skippedRows, int rowCount, int maxTailFrames) {
+            this.lags = lags;
+            this.skippedRows = skippedRows;
+            this.rowCount = rowCount;
+            numFeatures = 1 + lags.length * LAG_FEATURES;
+            int capacity = rowCount + maxTailFrames;
+            coordinates = new double[COORDINATES * capacity];
+            times = new double[capacity];
+            trackOf = new int[capacity];
+            frameOf = new int[capacity];
+            rowsByTrack = new int[capacity];
+            numRows = rowCount;
+        }
+
+        /**
+         * Adds a frame of a tail after the rows of the table.
+         *
+         * @param values the values of the tail
+         * @param offset index of the first value of the frame
+         */
+        void addTailFrame(double[] values, int offset, int track, int frame) {
+            int c = numRows * COORDINATES;
+            System.arraycopy(values, offset, coordinates, c, COORDINATES);
+            times[numRows] = values[offset + COORDINATES];
+            trackOf[numRows] = track;
+            frameOf[numRows] = frame;
+            numRows++;
+        }
+
+        /**
+         * Sorts the rows by track once all rows have been added.
+         *
+         * @param trackLengths number of rows per track
+         */
+        void orderByTrack(int[] trackLengths) {
+            trackStarts = new int[trackLengths.length + 1];
+            for (int track = 0; track < trackLengths.length; track++) {
+                trackStarts[track + 1] = trackStarts[track] + trackLengths[track];
+            }
+            for (int row = 0; row < numRows; row++) {
+                rowsByTrack[trackStarts[trackOf[row]] + frameOf[row]] = row;
+            }
+        }
+
+        /**
+         * Computes the features of a range of rows. The rows of a track in
+         * the range are consecutive frames of the track, these segments are
+         * given to the kernel one after the other together with the frames
+         * before them, which may be frames of a tail. Frames before the start of
+         * a track are at the origin, one time unit per frame before the first
+         * frame.
+         *
+         * @param first first row
+         * @param last row after the last row
+         * @param kernel the kernel
+         * @param features receives the features of the rows one after the
+         *            other
+         */
+        void computeFeatures(int first, int last, Kinematics kernel, double[] features) {
+            int history = kernel.getHistory();
+            int[] offsets = new int[last - first];
+            for (int row = first; row < last; row++) {
+                int start = trackStarts[trackOf[row]];
+                int length = trackStarts[trackOf[row] + 1] - start;
+                int frame = frameOf[row];
+                int previous = frame > 0 ? rowsByTrack[start + frame - 1] : -1;
+                if (previous >= first && previous < last) {
+                    // not the first row of a segment
+                    continue;
+                }
+                int end = frame + 1;
+                while (end < length && rowsByTrack[start + end] < last) {
+                    end++;
+                }
+
+                kernel.start(end - frame);
+                double firstTime = times[rowsByTrack[start]];
+                for (int j = 0; j < history + end - frame; j++) {
+                    int f = frame - history + j;
+                    if (f < 0) {
+                        kernel.setFrame(j, 0, 0, 0, 0, firstTime + f);
+                        continue;
+                    }
+                    int r = rowsByTrack[start + f];
+                    int c = r * COORDINATES;
+                    kernel.setFrame(j, coordinates[c], coordinates[c + 1], coordinates[c + 2], coordinates[c + 3], times[r]);
+                    if (f >= frame) {
+                        offsets[f - frame] = (r - first) * numFeatures;
+                    }
+                }
+                kernel.compute(features, offsets);
+            }
+        }
     }
-    
     
 
     /**
@@ -319,9 +910,7 @@ public class MovementFeaturesNodeModel extends NodeModel {
      */
     @Override
     protected void reset() {
-        // TODO Code executed on reset.
-        // Models build during execute are cleared here.
-        // Also data handled in load/saveInternals will be erased here.
+        m_tails = null;
     }
 
     /**
@@ -330,14 +919,10 @@ public class MovementFeaturesNodeModel extends NodeModel {
     @Override
     protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
             throws InvalidSettingsException {
-        
-        // TODO: check if user settings are available, fit to the incoming
-        // table structure, and the incoming types are feasible for the node
-        // to execute. If the node can execute in its current state return
-        // the spec of its output data table(s) (if you can, otherwise an array
-        // with null elements), or throw an exception with a useful user message
-
-        return new DataTableSpec[]{null};
+        int[] lags = parseLags(m_lags.getStringValue());
+        getInputColumnIndices(inSpecs[0]);
+        getTimeColumnIndex(inSpecs[0]);
+        return new DataTableSpec[]{createOutSpec(inSpecs[0], lags)};
     }
 
     /**
@@ -345,9 +930,12 @@ public class MovementFeaturesNodeModel extends NodeModel {
      */
     @Override
     protected void saveSettingsTo(final NodeSettingsWO settings) {
-
-        // TODO save user settings to the config object.
-
+        m_lags.saveSettingsTo(settings);
+        m_timeColumn.saveSettingsTo(settings);
+        for (SettingsModelString column : m_inputColumns) {
+            column.saveSettingsTo(settings);
+        }
+        m_incremental.saveSettingsTo(settings);
     }
 
     /**
@@ -356,12 +944,23 @@ public class MovementFeaturesNodeModel extends NodeModel {
     @Override
     protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-            
-        // TODO load (valid) settings from the config object.
-        // It can be safely assumed that the settings are valided by the 
-        // method below.
-
-
+        // workflows saved by older versions of the node lack the settings,
+        // which keep their defaults then (lag 1, no time column, the first
+        // five columns, not incremental)
+        if (settings.containsKey(CFGKEY_LAGS)) {
+            m_lags.loadSettingsFrom(settings);
+        }
+        if (settings.containsKey(CFGKEY_TIME_COLUMN)) {
+            m_timeColumn.loadSettingsFrom(settings);
+        }
+        for (SettingsModelString column : m_inputColumns) {
+            if (settings.containsKey(column.getKey())) {
+                column.loadSettingsFrom(settings);
+            }
+        }
+        if (settings.containsKey(CFGKEY_INCREMENTAL)) {
+            m_incremental.loadSettingsFrom(settings);
+        }
     }
 
     /**
@@ -370,13 +969,21 @@ public class MovementFeaturesNodeModel extends NodeModel {
     @Override
     protected void validateSettings(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-            
-        // TODO check if the settings could be applied to our model
-        // e.g. if the count is in a certain range (which is ensured by the
-        // SettingsModel).
-        // Do not actually set any values of any member variables.
-
-
+        if (settings.containsKey(CFGKEY_LAGS)) {
+            SettingsModelString lags = m_lags.createCloneWithValidatedValue(settings);
+            parseLags(lags.getStringValue());
+        }
+        if (settings.containsKey(CFGKEY_TIME_COLUMN)) {
+            m_timeColumn.validateSettings(settings);
+        }
+        for (SettingsModelString column : m_inputColumns) {
+            if (settings.containsKey(column.getKey())) {
+                column.validateSettings(settings);
+            }
+        }
+        if (settings.containsKey(CFGKEY_INCREMENTAL)) {
+            m_incremental.validateSettings(settings);
+        }
     }
     
     /**
@@ -386,14 +993,7 @@ public class MovementFeaturesNodeModel extends NodeModel {
     protected void loadInternals(final File internDir,
             final ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-        
-        // TODO load internal data. 
-        // Everything handed to output ports is loaded automatically (data
-        // returned by the execute method, models loaded in loadModelContent,
-        // and user settings set through loadSettingsFrom - is all taken care 
-        // of). Load here only the other internals that need to be restored
-        // (e.g. data used by the views).
-
+        m_tails = TrackTails.load(internDir);
     }
     
     /**
@@ -403,14 +1003,9 @@ public class MovementFeaturesNodeModel extends NodeModel {
     protected void saveInternals(final File internDir,
             final ExecutionMonitor exec) throws IOException,
             CanceledExecutionException {
-       
-        // TODO save internal models. 
-        // Everything written to output ports is saved automatically (data
-        // returned by the execute method, models saved in the saveModelContent,
-        // and user settings saved through saveSettingsTo - is all taken care 
-        // of). Save here only the other internals that need to be preserved
-        // (e.g. data used by the views).
-
+        if (m_tails != null) {
+            m_tails.save(internDir);
+        }
     }
 
 }
@@ -0,0 +1,177 @@
+package org.knime.knip.leuven.nodes.features;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State of the incremental mode of the movement features: the last frames of
+ * every track after the rows processed so far, which are all the features of
+ * the following frames depend on, together with the settings they have been
+ * computed with and the rows processed so far.
+ */
+final class TrackTails {
+
+    /** values per frame: x and y of head and tail and the time */
+    static final int FRAME_VALUES = 5;
+
+    private static final String FILE_NAME = "track_tails.bin";
+
+    private static final int VERSION = 2;
+
+    /**
+     * Last frames of a track.
+     */
+    static final class Tail {
+        // number of frames of the track
+        final int length;
+        // the last frames, FRAME_VALUES values per frame
+        final double[] frames;
+
+        Tail(int length, double[] frames) {
+            this.length = length;
+            this.frames = frames;
+        }
+
+        int getNumFrames() {
+            return frames.length / FRAME_VALUES;
+        }
+    }
+
+    // lags and input and time columns the tails have been computed with
+    private final String lags;
+    private final String columns;
+
+    // number of rows processed so far and the hash of their keys, track ids,
+    // coordinates and times
+    private final int numRows;
+    private final long rowsHash;
+
+    // tails by the string representation of the track id
+    private final Map<String, Tail> tails;
+
+    TrackTails(String lags, String columns, int numRows, long rowsHash, Map<String, Tail> tails) {
+        this.lags = lags;
+        this.columns = columns;
+        this.numRows = numRows;
+        this.rowsHash = rowsHash;
+        this.tails = tails;
+    }
+
+    /**
+     * @return whether the tails have been computed with the given settings
+     */
+    boolean matches(String otherLags, String otherColumns) {
+        return lags.equals(otherLags) && columns.equals(otherColumns);
+    }
+
+    int getNumRows() {
+        return numRows;
+    }
+
+    long getRowsHash() {
+        return rowsHash;
+    }
+
+    /**
+     * @return the tail of a track, <code>null</code> if the track is unknown
+     */
+    Tail get(String id) {
+        return tails.get(id);
+    }
+
+    /**
+     * @return the tails by track id
+     */
+    Map<String, Tail> getTails() {
+        return tails;
+    }
+
+    /**
+     * @return the number of frames of all tails
+     */
+    int getNumFrames() {
+        int numFrames = 0;
+        for (Tail tail : tails.values()) {
+            numFrames += tail.getNumFrames();
+        }
+        return numFrames;
+    }
+
+    /**
+     * Writes the tails to a directory.
+     */
+    void save(File dir) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, FILE_NAME))));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(lags);
+            out.writeUTF(columns);
+            out.writeInt(numRows);
+            out.writeLong(rowsHash);
+            out.writeInt(tails.size());
+            for (Map.Entry<String, Tail> entry : tails.entrySet()) {
+                Tail tail = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(tail.length);
+                out.writeInt(tail.frames.length);
+                for (double value : tail.frames) {
+                    out.writeDouble(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the tails written by {@link #save}.
+     *
+     * @return the tails, <code>null</code> if the directory does not contain
+     *         any or only tails of an older version, which are not checked
+     *         against the rows processed before
+     */
+    static TrackTails load(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version < VERSION) {
+                return null;
+            }
+            if (version != VERSION) {
+                throw new IOException("Unknown version " + version + " of the track tails.");
+            }
+            String lags = in.readUTF();
+            String columns = in.readUTF();
+            int numRows = in.readInt();
+            long rowsHash = in.readLong();
+            int numTails = in.readInt();
+            Map<String, Tail> tails = new HashMap<String, Tail>();
+            for (int t = 0; t < numTails; t++) {
+                String id = in.readUTF();
+                int length = in.readInt();
+                double[] frames = new double[in.readInt()];
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = in.readDouble();
+                }
+                tails.put(id, new Tail(length, frames));
+            }
+            return new TrackTails(lags, columns, numRows, rowsHash, tails);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads the frames of a {@link FrameCache} entry. The entry is memory mapped
+ * in chunks of whole frames, hence reading is a plain copy from the page cache
+ * into the frame buffers.
+ */
+public class CachedFrameProducer implements FrameDecodePipeline.FrameProducer,
+		Closeable {
+
+	/*
+	 * Upper bound for the size of one mapped chunk.
+	 */
+	private static final long MAX_CHUNK_SIZE = 1l << 30;
+
+	private final RandomAccessFile m_file;
+
+	private final FileChannel m_channel;
+
+	private final int m_width;
+
+	private final int m_height;
+
+	private final int m_numFrames;
+
+	private final boolean m_valid;
+
+	private final int m_recordSize;
+
+	private final int m_framesPerChunk;
+
+	private MappedByteBuffer m_chunk;
+
+	private int m_chunkIndex = -1;
+
+	private int m_index = 0;
+
+	CachedFrameProducer(final File entry) throws IOException {
+		m_file = new RandomAccessFile(entry, "r");
+		m_channel = m_file.getChannel();
+
+		final ByteBuffer header = ByteBuffer.allocate(FrameCache.HEADER_SIZE);
+		while (header.hasRemaining() && m_channel.read(header) >= 0) {
+			// read the complete header
+		}
+		header.flip();
+
+		if (header.remaining() < FrameCache.HEADER_SIZE
+				|| header.getInt() != FrameCache.MAGIC) {
+			m_width = m_height = m_numFrames = m_recordSize = m_framesPerChunk = 0;
+			m_valid = false;
+			return;
+		}
+
+		m_width = header.getInt();
+		m_height = header.getInt();
+		m_numFrames = header.getInt();
+		m_recordSize = 4 + m_width * m_height;
+		m_framesPerChunk = (int) Math.max(1, MAX_CHUNK_SIZE / m_recordSize);
+
+		// incomplete entries are never renamed into place, but be careful
+		m_valid = m_width > 0
+				&& m_height > 0
+				&& m_numFrames >= 0
+				&& m_channel.size() == FrameCache.HEADER_SIZE
+						+ (long) m_numFrames * m_recordSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean next(final FrameBuffer buffer) throws IOException {
+		if (m_index >= m_numFrames) {
+			return false;
+		}
+
+		final int chunkIndex = m_index / m_framesPerChunk;
+		if (chunkIndex != m_chunkIndex) {
+			final long first = (long) chunkIndex * m_framesPerChunk;
+			final long count = Math.min(m_framesPerChunk, m_numFrames - first);
+			m_chunk = m_channel.map(MapMode.READ_ONLY, FrameCache.HEADER_SIZE
+					+ first * m_recordSize, count * m_recordSize);
+			m_chunkIndex = chunkIndex;
+		}
+
+		final int frameSize = m_width * m_height;
+		m_chunk.position((m_index % m_framesPerChunk) * m_recordSize);
+		final int frameNumber = m_chunk.getInt();
+		m_chunk.get(buffer.ensureCapacity(frameSize), 0, frameSize);
+
+		buffer.setSize(m_width, m_height);
+		buffer.setPosition(m_index++, frameNumber);
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		m_chunk = null;
+		m_file.close();
+	}
+
+	boolean isValid() {
+		return m_valid;
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	/**
+	 * @return the number of frames in the entry
+	 */
+	public int getNumFrames() {
+		return m_numFrames;
+	}
+}
@@ -0,0 +1,137 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Passes on the frames of another producer and writes them to a new
+ * {@link FrameCache} entry on the way. The entry is written to a temporary
+ * file first and only moved into place by {@link #commit()}, hence readers
+ * never see incomplete entries. Closing an uncommitted producer discards the
+ * temporary file.
+ */
+public class CachingFrameProducer implements FrameDecodePipeline.FrameProducer,
+		Closeable {
+
+	private final FrameDecodePipeline.FrameProducer m_source;
+
+	private final File m_entry;
+
+	private final File m_tmp;
+
+	private final RandomAccessFile m_file;
+
+	private final FileChannel m_channel;
+
+	private final int m_frameSize;
+
+	private final ByteBuffer m_frameNumber = ByteBuffer.allocate(4);
+
+	private int m_numFrames = 0;
+
+	private boolean m_committed = false;
+
+	CachingFrameProducer(final FrameDecodePipeline.FrameProducer source,
+			final File entry, final int width, final int height)
+			throws IOException {
+		m_source = source;
+		m_entry = entry;
+		m_frameSize = width * height;
+
+		m_tmp = File.createTempFile(entry.getName(), ".tmp",
+				entry.getParentFile());
+		m_file = new RandomAccessFile(m_tmp, "rw");
+		m_channel = m_file.getChannel();
+
+		final ByteBuffer header = ByteBuffer.allocate(FrameCache.HEADER_SIZE);
+		header.putInt(FrameCache.MAGIC).putInt(width).putInt(height)
+				.putInt(-1).flip();
+		writeFully(header);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean next(final FrameBuffer buffer) throws Exception {
+		if (!m_source.next(buffer)) {
+			return false;
+		}
+
+		m_frameNumber.clear();
+		m_frameNumber.putInt(buffer.getFrameNumber()).flip();
+		writeFully(m_frameNumber);
+		writeFully(ByteBuffer.wrap(buffer.getData(), 0, m_frameSize));
+		m_numFrames++;
+
+		return true;
+	}
+
+	/**
+	 * Completes the entry, to be called once all frames have been read.
+	 *
+	 * @throws IOException
+	 *             if the entry can not be written
+	 */
+	public void commit() throws IOException {
+		final ByteBuffer numFrames = ByteBuffer.allocate(4);
+		numFrames.putInt(m_numFrames).flip();
+		m_channel.write(numFrames, FrameCache.HEADER_SIZE - 4);
+		m_file.close();
+
+		Files.move(m_tmp.toPath(), m_entry.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		m_committed = true;
+	}
+
+	/**
+	 * Completes an entry whose frames have been read in several consecutive
+	 * segments, each of which has been written by a producer of its own. The
+	 * frames of the later segments are appended to the first one, which is
+	 * committed afterwards. All producers still have to be closed.
+	 *
+	 * @param segments
+	 *            the producers of the segments in order
+	 * @throws IOException
+	 *             if the entry can not be written
+	 */
+	public static void commit(final List<CachingFrameProducer> segments)
+			throws IOException {
+		final CachingFrameProducer first = segments.get(0);
+		for (int i = 1; i < segments.size(); i++) {
+			final CachingFrameProducer segment = segments.get(i);
+			final long size = segment.m_channel.size();
+			long pos = FrameCache.HEADER_SIZE;
+			while (pos < size) {
+				pos += segment.m_channel.transferTo(pos, size - pos,
+						first.m_channel);
+			}
+			first.m_numFrames += segment.m_numFrames;
+		}
+		first.commit();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!m_committed) {
+			m_file.close();
+			m_tmp.delete();
+		}
+	}
+
+	private void writeFully(final ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			m_channel.write(src);
+		}
+	}
+}
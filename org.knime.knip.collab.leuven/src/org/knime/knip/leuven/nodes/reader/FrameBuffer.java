@@ -0,0 +1,84 @@
+package org.knime.knip.leuven.nodes.reader;
+
+/**
+ * Reusable holder for the 8 bit pixel data of one decoded video frame. Buffers
+ * are handed out by a {@link FrameBufferRing}, filled by the decoding thread
+ * and given back to the ring once a worker has converted them. The backing
+ * array only grows, so a ring which has seen the first frame of a stream does
+ * not allocate anymore.
+ */
+public class FrameBuffer {
+
+	private byte[] m_data = new byte[0];
+
+	private int m_width;
+
+	private int m_height;
+
+	private int m_index;
+
+	private int m_frameNumber;
+
+	/**
+	 * Makes sure the backing array can hold at least the given number of
+	 * bytes.
+	 *
+	 * @param size
+	 *            required number of bytes
+	 * @return the backing array
+	 */
+	public byte[] ensureCapacity(final int size) {
+		if (m_data.length < size) {
+			m_data = new byte[size];
+		}
+		return m_data;
+	}
+
+	/**
+	 * Sets the size of the frame currently held by this buffer. Its pixels
+	 * are stored line by line without padding.
+	 *
+	 * @param width
+	 *            frame width in pixels
+	 * @param height
+	 *            frame height in pixels
+	 */
+	public void setSize(final int width, final int height) {
+		m_width = width;
+		m_height = height;
+	}
+
+	/**
+	 * @param index
+	 *            index of the frame in the output
+	 * @param frameNumber
+	 *            number of the frame in the source video
+	 */
+	public void setPosition(final int index, final int frameNumber) {
+		m_index = index;
+		m_frameNumber = frameNumber;
+	}
+
+	/**
+	 * @return the backing array, which may be larger than the frame
+	 */
+	public byte[] getData() {
+		return m_data;
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	public int getIndex() {
+		return m_index;
+	}
+
+	public int getFrameNumber() {
+		return m_frameNumber;
+	}
+}
@@ -0,0 +1,67 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded set of reusable {@link FrameBuffer}s shared between the decoding
+ * thread and the conversion workers (similar to javacv's BufferRing, but safe
+ * to use from several threads). {@link #acquire()} blocks while all buffers
+ * are in flight, which throttles the decoder to the speed of the workers.
+ */
+public class FrameBufferRing {
+
+	private final BlockingQueue<FrameBuffer> m_free;
+
+	private final int m_capacity;
+
+	/**
+	 * @param capacity
+	 *            number of buffers in the ring
+	 * @param frameSize
+	 *            number of bytes of one frame of the stream, used to allocate
+	 *            the buffers up front
+	 */
+	public FrameBufferRing(final int capacity, final int frameSize) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"A frame buffer ring needs at least one buffer.");
+		}
+		m_capacity = capacity;
+		m_free = new ArrayBlockingQueue<FrameBuffer>(capacity);
+		for (int i = 0; i < capacity; i++) {
+			final FrameBuffer buffer = new FrameBuffer();
+			buffer.ensureCapacity(frameSize);
+			m_free.add(buffer);
+		}
+	}
+
+	/**
+	 * Takes a free buffer from the ring, waiting if none is available.
+	 *
+	 * @return a buffer which is exclusively owned by the caller until it is
+	 *         released
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public FrameBuffer acquire() throws InterruptedException {
+		return m_free.take();
+	}
+
+	/**
+	 * Gives a buffer back to the ring.
+	 *
+	 * @param buffer
+	 *            a buffer obtained by {@link #acquire()}
+	 */
+	public void release(final FrameBuffer buffer) {
+		m_free.offer(buffer);
+	}
+
+	/**
+	 * @return the number of buffers in the ring
+	 */
+	public int capacity() {
+		return m_capacity;
+	}
+}
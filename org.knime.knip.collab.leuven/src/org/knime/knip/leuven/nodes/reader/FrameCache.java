@@ -0,0 +1,124 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of decoded videos. Each entry holds the luminance of the frames
+ * read from one video with one frame selection, hence re-reading the video
+ * with unchanged settings does not involve FFmpeg at all. Entries are keyed by
+ * the path, size and modification time of the video, so a changed video is
+ * decoded again. The directory may be cleared at any time.
+ * <p>
+ * An entry is a raw file: a header of four ints (magic number, width, height,
+ * number of frames) followed by one record per frame, consisting of the frame
+ * number in the source video and the pixels line by line.
+ */
+public class FrameCache {
+
+	static final int MAGIC = 0x4b564643;
+
+	static final int HEADER_SIZE = 16;
+
+	/*
+	 * Bump if the layout of the entries changes, older entries are ignored
+	 * afterwards.
+	 */
+	private static final int VERSION = 1;
+
+	private static final String SUFFIX = ".frames";
+
+	private final File m_directory;
+
+	/**
+	 * @param directory
+	 *            the cache directory, created if it does not exist
+	 * @throws IOException
+	 *             if the directory can not be created
+	 */
+	public FrameCache(final File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the frame cache directory "
+					+ directory + ".");
+		}
+		m_directory = directory;
+	}
+
+	/**
+	 * Opens the entry of the given video.
+	 *
+	 * @param video
+	 *            the video file
+	 * @param selection
+	 *            describes which frames are read from the video
+	 * @return the cached frames or <code>null</code> if there is no valid
+	 *         entry
+	 * @throws IOException
+	 *             if the entry exists but can not be read
+	 */
+	public CachedFrameProducer open(final File video, final String selection)
+			throws IOException {
+		final File entry = getEntry(video, selection);
+		if (!entry.isFile()) {
+			return null;
+		}
+		final CachedFrameProducer producer = new CachedFrameProducer(entry);
+		if (!producer.isValid()) {
+			producer.close();
+			return null;
+		}
+		return producer;
+	}
+
+	/**
+	 * Creates the entry of the given video from the frames of the given
+	 * producer. The entry becomes visible once
+	 * {@link CachingFrameProducer#commit()} has been called.
+	 *
+	 * @param source
+	 *            decodes the frames of the video
+	 * @param video
+	 *            the video file
+	 * @param selection
+	 *            describes which frames are read from the video
+	 * @param width
+	 *            frame width in pixels
+	 * @param height
+	 *            frame height in pixels
+	 * @return producer passing on the frames of the source
+	 * @throws IOException
+	 *             if the entry can not be created
+	 */
+	public CachingFrameProducer create(
+			final FrameDecodePipeline.FrameProducer source, final File video,
+			final String selection, final int width, final int height)
+			throws IOException {
+		return new CachingFrameProducer(source, getEntry(video, selection),
+				width, height);
+	}
+
+	private File getEntry(final File video, final String selection)
+			throws IOException {
+		final String key = VERSION + "|" + video.getCanonicalPath() + "|"
+				+ video.length() + "|" + video.lastModified() + "|"
+				+ selection;
+
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(
+					key.getBytes(Charset.forName("UTF-8")));
+		} catch (final NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-1
+			throw new IllegalStateException(e);
+		}
+
+		final StringBuilder name = new StringBuilder();
+		for (final byte b : digest) {
+			name.append(String.format("%02x", b & 0xff));
+		}
+		return new File(m_directory, name.append(SUFFIX).toString());
+	}
+}
@@ -0,0 +1,32 @@
+package org.knime.knip.leuven.nodes.reader;
+
+/**
+ * Thrown by {@link FrameDecodePipeline#run(FrameDecodePipeline.FrameConsumer)}
+ * if the producer failed. All frames decoded before the failure have been
+ * passed to the consumer at that point, which allows to keep them.
+ */
+public class FrameDecodeException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int m_numFrames;
+
+	/**
+	 * @param numFrames
+	 *            number of frames decoded before the failure
+	 * @param cause
+	 *            the exception thrown by the producer
+	 */
+	public FrameDecodeException(final int numFrames, final Throwable cause) {
+		super("Decoding failed after " + numFrames + " frames: "
+				+ cause.getMessage(), cause);
+		m_numFrames = numFrames;
+	}
+
+	/**
+	 * @return the number of frames decoded before the failure
+	 */
+	public int getNumFrames() {
+		return m_numFrames;
+	}
+}
@@ -0,0 +1,220 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.knime.core.util.ThreadPool;
+
+/**
+ * Producer/consumer pipeline for decoding videos. A dedicated thread pulls
+ * frames from a {@link FrameProducer} into the buffers of a
+ * {@link FrameBufferRing}, a pool of workers converts the filled buffers and
+ * the thread calling {@link #run(FrameConsumer)} receives the converted frames
+ * in decoding order. Hence the decoder never waits for the consumer as long as
+ * free buffers are available.
+ *
+ * @param <O>
+ *            type of the converted frames
+ */
+public class FrameDecodePipeline<O> {
+
+	/**
+	 * Fills frame buffers, called from the decoding thread only.
+	 */
+	public interface FrameProducer {
+
+		/**
+		 * Decodes the next frame into the given buffer.
+		 *
+		 * @param buffer
+		 *            buffer to fill
+		 * @return <code>false</code> if the end of the stream has been reached
+		 *         and the buffer was left untouched
+		 * @throws Exception
+		 *             if the frame could not be decoded
+		 */
+		boolean next(FrameBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * Converts a filled frame buffer, called concurrently from the workers.
+	 * The buffer is recycled once the conversion returns, hence the result must
+	 * not refer to its data.
+	 *
+	 * @param <O>
+	 *            type of the converted frames
+	 */
+	public interface FrameConverter<O> {
+
+		O convert(FrameBuffer buffer) throws Exception;
+	}
+
+	/**
+	 * Receives the converted frames in decoding order, called from the thread
+	 * running the pipeline.
+	 *
+	 * @param <O>
+	 *            type of the converted frames
+	 */
+	public interface FrameConsumer<O> {
+
+		void consume(O frame) throws Exception;
+	}
+
+	private final FrameProducer m_producer;
+
+	private final FrameBufferRing m_ring;
+
+	private final FrameConverter<O> m_converter;
+
+	private final ThreadPool m_workers;
+
+	/**
+	 * @param producer
+	 *            decodes the frames
+	 * @param ring
+	 *            buffers shared by decoder and workers, its capacity bounds
+	 *            the number of frames in flight
+	 * @param converter
+	 *            converts the decoded frames
+	 * @param workers
+	 *            executes the conversions, usually a sub pool of the global
+	 *            KNIME thread pool
+	 */
+	public FrameDecodePipeline(final FrameProducer producer,
+			final FrameBufferRing ring, final FrameConverter<O> converter,
+			final ThreadPool workers) {
+		m_producer = producer;
+		m_ring = ring;
+		m_converter = converter;
+		m_workers = workers;
+	}
+
+	/**
+	 * Runs the pipeline until the producer reports the end of the stream. If
+	 * the consumer throws (e.g. because execution was canceled) decoding is
+	 * stopped and the exception is passed on.
+	 *
+	 * @param consumer
+	 *            receives the converted frames in order
+	 * @throws FrameDecodeException
+	 *             if the producer failed, after the frames decoded so far have
+	 *             been consumed
+	 * @throws Exception
+	 *             if conversion or consumption failed
+	 */
+	public void run(final FrameConsumer<O> consumer) throws Exception {
+
+		// converted frames in decoding order, bounded to keep the decoder
+		// from running arbitrarily far ahead of the consumer
+		final BlockingQueue<Future<O>> pending = new ArrayBlockingQueue<Future<O>>(
+				2 * m_ring.capacity());
+
+		final Future<O> endOfStream = new FutureTask<O>(new Callable<O>() {
+			@Override
+			public O call() {
+				return null;
+			}
+		});
+
+		final AtomicReference<FrameDecodeException> decodeError = new AtomicReference<FrameDecodeException>();
+
+		final Thread decoder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				int numFrames = 0;
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						final FrameBuffer buffer = m_ring.acquire();
+						final boolean decoded;
+						try {
+							decoded = m_producer.next(buffer);
+						} catch (final Exception e) {
+							m_ring.release(buffer);
+							throw e;
+						}
+						if (!decoded) {
+							m_ring.release(buffer);
+							break;
+						}
+						pending.put(m_workers.enqueue(new Callable<O>() {
+							@Override
+							public O call() throws Exception {
+								try {
+									return m_converter.convert(buffer);
+								} finally {
+									m_ring.release(buffer);
+								}
+							}
+						}));
+						numFrames++;
+					}
+					pending.put(endOfStream);
+				} catch (final InterruptedException e) {
+					// pipeline has been aborted by the consumer
+				} catch (final Exception e) {
+					decodeError.set(new FrameDecodeException(numFrames, e));
+					try {
+						pending.put(endOfStream);
+					} catch (final InterruptedException ie) {
+						// pipeline has been aborted by the consumer
+					}
+				}
+			}
+		}, "Video Decoder");
+
+		decoder.start();
+		try {
+			while (true) {
+				final Future<O> next = pending.take();
+				if (next == endOfStream) {
+					break;
+				}
+				consumer.consume(get(m_workers, next));
+			}
+		} finally {
+			decoder.interrupt();
+			for (final Future<O> f : pending) {
+				f.cancel(true);
+			}
+			pending.clear();
+			decoder.join();
+		}
+
+		if (decodeError.get() != null) {
+			throw decodeError.get();
+		}
+	}
+
+	/*
+	 * Waits for the result and unwraps the exception thrown by the task. The
+	 * calling thread does not count as a thread of the pool while it waits,
+	 * hence waiting threads of the pool cannot keep the task from running.
+	 */
+	static <O> O get(final ThreadPool pool, final Future<O> future)
+			throws Exception {
+		try {
+			return pool.runInvisible(new Callable<O>() {
+				@Override
+				public O call() throws Exception {
+					return future.get();
+				}
+			});
+		} catch (final ExecutionException e) {
+			Throwable cause = e;
+			while (cause instanceof ExecutionException
+					&& cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+}
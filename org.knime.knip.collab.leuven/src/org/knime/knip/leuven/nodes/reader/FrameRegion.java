@@ -0,0 +1,190 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named rectangle of a video frame, e.g. one well of a plate, which is cropped
+ * from the decoded frames.
+ */
+public class FrameRegion {
+
+	private final String m_name;
+
+	private final int m_x;
+
+	private final int m_y;
+
+	private final int m_width;
+
+	private final int m_height;
+
+	public FrameRegion(final String name, final int x, final int y,
+			final int width, final int height) {
+		if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid region " + x + ","
+					+ y + "," + width + "," + height + ".");
+		}
+		m_name = name;
+		m_x = x;
+		m_y = y;
+		m_width = width;
+		m_height = height;
+	}
+
+	/**
+	 * Parses rectangles given as <code>x,y,width,height</code> and separated by
+	 * semicolons. The regions are named "ROI 1", "ROI 2" and so on.
+	 *
+	 * @param rectangles
+	 *            the rectangles
+	 * @return the regions, empty if the string is blank
+	 * @throws IllegalArgumentException
+	 *             if the string can not be parsed
+	 */
+	public static List<FrameRegion> parseRectangles(final String rectangles) {
+		final List<FrameRegion> regions = new ArrayList<FrameRegion>();
+		for (final String rectangle : rectangles.split(";")) {
+			if (!rectangle.trim().isEmpty()) {
+				regions.add(parseRectangle("ROI " + (regions.size() + 1),
+						rectangle));
+			}
+		}
+		return regions;
+	}
+
+	/**
+	 * Parses a single rectangle given as <code>x,y,width,height</code>.
+	 *
+	 * @param name
+	 *            name of the region
+	 * @param rectangle
+	 *            the rectangle
+	 * @return the region
+	 * @throws IllegalArgumentException
+	 *             if the string can not be parsed
+	 */
+	public static FrameRegion parseRectangle(final String name,
+			final String rectangle) {
+		final String[] values = rectangle.split(",");
+		if (values.length != 4) {
+			throw new IllegalArgumentException("Rectangle '"
+					+ rectangle.trim() + "' is not of the form x,y,width,height.");
+		}
+		try {
+			return new FrameRegion(name, Integer.parseInt(values[0].trim()),
+					Integer.parseInt(values[1].trim()),
+					Integer.parseInt(values[2].trim()),
+					Integer.parseInt(values[3].trim()));
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Rectangle '"
+					+ rectangle.trim() + "' is not of the form x,y,width,height.");
+		}
+	}
+
+	/**
+	 * Splits the area covered by a plate into equally sized wells, which are
+	 * named row-wise A1, A2, ..., B1, ...
+	 *
+	 * @param numWells
+	 *            24, 48 or 96
+	 * @param plate
+	 *            area covered by the plate
+	 * @return the wells
+	 */
+	public static List<FrameRegion> plateGrid(final int numWells,
+			final FrameRegion plate) {
+		final int rows;
+		final int cols;
+		switch (numWells) {
+		case 24:
+			rows = 4;
+			cols = 6;
+			break;
+		case 48:
+			rows = 6;
+			cols = 8;
+			break;
+		case 96:
+			rows = 8;
+			cols = 12;
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported plate format: "
+					+ numWells + " wells.");
+		}
+
+		if (plate.m_width < cols || plate.m_height < rows) {
+			throw new IllegalArgumentException("The plate area is too small for "
+					+ numWells + " wells.");
+		}
+
+		final List<FrameRegion> wells = new ArrayList<FrameRegion>(numWells);
+		for (int r = 0; r < rows; r++) {
+			final int y0 = plate.m_y + (int) ((long) r * plate.m_height / rows);
+			final int y1 = plate.m_y
+					+ (int) ((long) (r + 1) * plate.m_height / rows);
+			for (int c = 0; c < cols; c++) {
+				final int x0 = plate.m_x
+						+ (int) ((long) c * plate.m_width / cols);
+				final int x1 = plate.m_x
+						+ (int) ((long) (c + 1) * plate.m_width / cols);
+				wells.add(new FrameRegion((char) ('A' + r) + ""
+						+ (c + 1), x0, y0, x1 - x0, y1 - y0));
+			}
+		}
+		return wells;
+	}
+
+	/**
+	 * @param width
+	 *            frame width in pixels
+	 * @param height
+	 *            frame height in pixels
+	 * @return <code>true</code> if the region lies within a frame of the given
+	 *         size
+	 */
+	public boolean fits(final int width, final int height) {
+		return (long) m_x + m_width <= width
+				&& (long) m_y + m_height <= height;
+	}
+
+	/**
+	 * Copies the region out of a frame.
+	 *
+	 * @param frame
+	 *            the pixels of the frame line by line
+	 * @param frameWidth
+	 *            width of the frame
+	 * @return the pixels of the region line by line
+	 */
+	public byte[] crop(final byte[] frame, final int frameWidth) {
+		final byte[] region = new byte[m_width * m_height];
+		for (int y = 0; y < m_height; y++) {
+			System.arraycopy(frame, (m_y + y) * frameWidth + m_x, region, y
+					* m_width, m_width);
+		}
+		return region;
+	}
+
+	public String getName() {
+		return m_name;
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return m_name + " (" + m_x + "," + m_y + "," + m_width + ","
+				+ m_height + ")";
+	}
+}
@@ -0,0 +1,149 @@
+package org.knime.knip.leuven.nodes.reader;
+
+/**
+ * Feeds a {@link FrameDecodePipeline} with the luminance of the frames of a
+ * started {@link LuminanceFrameGrabber}. The frames are taken from a time range
+ * of the video, using every <code>stride</code>-th frame only. Skipped frames
+ * are decoded without conversion, long gaps are bridged by seeking and in key
+ * frame mode only key frames are decoded at all.
+ */
+public class GrabberFrameProducer implements FrameDecodePipeline.FrameProducer {
+
+	/*
+	 * Gaps between two used frames which are longer than this (in
+	 * microseconds) are bridged by seeking to the preceding key frame instead
+	 * of decoding every frame in between.
+	 */
+	private static final long SEEK_THRESHOLD = 10 * 1000000L;
+
+	private final LuminanceFrameGrabber m_grabber;
+
+	private final int m_stride;
+
+	private final long m_startTime;
+
+	private final long m_endTime;
+
+	private final int m_maxFrames;
+
+	private final boolean m_keyFramesOnly;
+
+	private final double m_frameDuration;
+
+	private int m_index = 0;
+
+	private boolean m_endOfStream = false;
+
+	/**
+	 * @param grabber
+	 *            the started grabber to read from
+	 * @param stride
+	 *            use every x frames
+	 * @param startTime
+	 *            time of the first frame in microseconds
+	 * @param endTime
+	 *            time after which no more frames are used in microseconds
+	 * @param maxFrames
+	 *            maximum number of frames to produce, 0 for no limit
+	 * @param keyFramesOnly
+	 *            if <code>true</code> only key frames are decoded, each used
+	 *            frame is the first key frame at or after its sampling time
+	 */
+	public GrabberFrameProducer(final LuminanceFrameGrabber grabber,
+			final int stride, final long startTime, final long endTime,
+			final int maxFrames, final boolean keyFramesOnly) {
+		m_grabber = grabber;
+		m_stride = stride;
+		m_startTime = startTime;
+		m_endTime = endTime;
+		m_maxFrames = maxFrames;
+		m_keyFramesOnly = keyFramesOnly;
+
+		final double frameRate = grabber.getFrameRate();
+		m_frameDuration = frameRate > 0 ? 1000000d / frameRate : 1000000d;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean next(final FrameBuffer buffer) throws Exception {
+
+		if (m_maxFrames > 0 && m_index >= m_maxFrames) {
+			return false;
+		}
+
+		final int width = m_grabber.getImageWidth();
+		final int height = m_grabber.getImageHeight();
+		final byte[] dst = buffer.ensureCapacity(width * height);
+
+		final boolean decoded = m_keyFramesOnly ? nextKeyFrame(dst)
+				: nextFrame(dst);
+		if (!decoded) {
+			m_endOfStream = true;
+			return false;
+		}
+		if (m_grabber.getTimestamp() > m_endTime) {
+			return false;
+		}
+
+		buffer.setSize(width, height);
+		buffer.setPosition(m_index++, m_grabber.getFrameNumber());
+
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the frames ended because the grabber
+	 *         reached the end of the stream, rather than the end time or the
+	 *         maximum number of frames
+	 */
+	public boolean reachedEndOfStream() {
+		return m_endOfStream;
+	}
+
+	/*
+	 * Sampling time of the next frame to use.
+	 */
+	private long nextTarget() {
+		return m_startTime
+				+ Math.round((double) m_index * m_stride * m_frameDuration);
+	}
+
+	private boolean nextFrame(final byte[] dst) throws Exception {
+		final long target = nextTarget();
+
+		if (m_index == 0 ? m_startTime > 0
+				: target - m_grabber.getTimestamp() > SEEK_THRESHOLD) {
+			m_grabber.setTimestamp(target);
+			// seeking beyond the end of the stream leaves the last frame
+			return m_grabber.grabLuminance(dst)
+					&& m_grabber.getTimestamp() >= target - m_frameDuration;
+		}
+
+		if (m_index > 0) {
+			for (int i = 1; i < m_stride; i++) {
+				if (!m_grabber.skipFrame()) {
+					return false;
+				}
+			}
+		}
+		return m_grabber.grabLuminance(dst);
+	}
+
+	private boolean nextKeyFrame(final byte[] dst) throws Exception {
+		final long target = nextTarget();
+
+		if (m_index == 0 && m_startTime > 0) {
+			return m_grabber.seekKeyFrameLuminance(target, dst);
+		}
+
+		do {
+			if (!m_grabber.grabKeyFrameLuminance(dst)) {
+				return false;
+			}
+		} while (m_grabber.getTimestamp() < target);
+
+		return true;
+	}
+}
@@ -0,0 +1,184 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_GRAY8;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NV12;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NV21;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV410P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV411P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV422P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV440P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV444P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVA420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ422P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ440P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ444P;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+/**
+ * {@link FFmpegFrameGrabber} which delivers the luminance of each frame only.
+ * If the codec decodes to a planar YUV (or gray) format the grabber runs in
+ * {@link ImageMode#RAW} and the Y plane of the decoded AVFrame is copied
+ * directly, i.e. neither sws_scale nor any AWT image is involved. Other pixel
+ * formats are converted to 8 bit gray by FFmpeg.
+ */
+public class LuminanceFrameGrabber extends FFmpegFrameGrabber {
+
+	/*
+	 * Pixel formats whose first plane holds the 8 bit luminance.
+	 */
+	private static final int[] LUMA_PLANE_FORMATS = new int[] {
+			AV_PIX_FMT_YUV420P, AV_PIX_FMT_YUVJ420P, AV_PIX_FMT_YUV422P,
+			AV_PIX_FMT_YUVJ422P, AV_PIX_FMT_YUV444P, AV_PIX_FMT_YUVJ444P,
+			AV_PIX_FMT_YUV440P, AV_PIX_FMT_YUVJ440P, AV_PIX_FMT_YUV410P,
+			AV_PIX_FMT_YUV411P, AV_PIX_FMT_YUVA420P, AV_PIX_FMT_NV12,
+			AV_PIX_FMT_NV21, AV_PIX_FMT_GRAY8 };
+
+	public LuminanceFrameGrabber(final File file) {
+		super(file);
+	}
+
+	public LuminanceFrameGrabber(final String filename) {
+		super(filename);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void start() throws Exception {
+		setImageMode(ImageMode.RAW);
+		super.start();
+
+		// in raw mode the pixel format is the one of the codec
+		if (!hasLumaPlane(getPixelFormat())) {
+			release();
+			setImageMode(ImageMode.GRAY);
+			super.start();
+		}
+	}
+
+	/**
+	 * Decodes the next video frame and copies its luminance line by line into
+	 * the given array, i.e. <code>dst[y * width + x]</code> holds the pixel at
+	 * (x, y).
+	 *
+	 * @param dst
+	 *            array of at least {@link #getImageWidth()} *
+	 *            {@link #getImageHeight()} bytes
+	 * @return <code>false</code> if the end of the stream has been reached
+	 * @throws Exception
+	 *             if the frame could not be decoded
+	 */
+	public boolean grabLuminance(final byte[] dst) throws Exception {
+		return copyLuminance(grab(), dst);
+	}
+
+	/**
+	 * Like {@link #grabLuminance(byte[])}, but only packets of key frames are
+	 * decoded, everything in between is skipped.
+	 *
+	 * @param dst
+	 *            array of at least {@link #getImageWidth()} *
+	 *            {@link #getImageHeight()} bytes
+	 * @return <code>false</code> if the end of the stream has been reached
+	 * @throws Exception
+	 *             if the frame could not be decoded
+	 */
+	public boolean grabKeyFrameLuminance(final byte[] dst) throws Exception {
+		final Frame frame = grabKeyFrame();
+		return copyLuminance(frame == null ? null : frame.image, dst);
+	}
+
+	/**
+	 * Seeks to the given time and copies the luminance of the first key frame
+	 * at or after it. Seeking decodes up to the requested time and keeps the
+	 * frame there for the next grab, which would be returned even by
+	 * {@link #grabKeyFrame()}, hence it is used only if it is a key frame.
+	 *
+	 * @param timestamp
+	 *            time in microseconds
+	 * @param dst
+	 *            array of at least {@link #getImageWidth()} *
+	 *            {@link #getImageHeight()} bytes
+	 * @return <code>false</code> if the end of the stream has been reached
+	 * @throws Exception
+	 *             if the frame could not be decoded
+	 */
+	public boolean seekKeyFrameLuminance(final long timestamp,
+			final byte[] dst) throws Exception {
+		setTimestamp(timestamp);
+
+		Frame frame;
+		do {
+			frame = grabFrame();
+		} while (frame != null && frame.image == null);
+		if (frame == null) {
+			return false;
+		}
+		if (frame.keyFrame && getTimestamp() >= timestamp) {
+			return copyLuminance(frame.image, dst);
+		}
+
+		do {
+			if (!grabKeyFrameLuminance(dst)) {
+				return false;
+			}
+		} while (getTimestamp() < timestamp);
+		return true;
+	}
+
+	/**
+	 * Decodes the next video frame without converting or copying it, which is
+	 * the cheapest way to advance by a few frames.
+	 *
+	 * @return <code>false</code> if the end of the stream has been reached
+	 * @throws Exception
+	 *             if the frame could not be decoded
+	 */
+	public boolean skipFrame() throws Exception {
+		Frame frame;
+		do {
+			frame = grabFrame(false);
+			// audio frames come without image
+		} while (frame != null && frame.image == null);
+		return frame != null;
+	}
+
+	private static boolean copyLuminance(final IplImage image, final byte[] dst) {
+		if (image == null) {
+			return false;
+		}
+
+		final int width = image.width();
+		final int height = image.height();
+		final int lineStride = image.widthStep();
+		final ByteBuffer src = image.getByteBuffer();
+
+		if (lineStride == width) {
+			src.get(dst, 0, width * height);
+		} else {
+			for (int y = 0; y < height; y++) {
+				src.position(y * lineStride);
+				src.get(dst, y * width, width);
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasLumaPlane(final int pixelFormat) {
+		for (final int format : LUMA_PLANE_FORMATS) {
+			if (format == pixelFormat) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
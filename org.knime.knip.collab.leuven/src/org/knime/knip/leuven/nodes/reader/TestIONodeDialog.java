@@ -1,8 +1,95 @@
 package org.knime.knip.leuven.nodes.reader;
 
+import javax.swing.JFileChooser;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.knime.core.data.StringValue;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentFileChooser;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
+import org.knime.core.node.defaultnodesettings.DialogComponentString;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 public class TestIONodeDialog extends DefaultNodeSettingsPane {
-	//TODO add column selection for path column 
-	//TODO add frame rate chooser.
+
+	@SuppressWarnings("unchecked")
+	public TestIONodeDialog() {
+
+		addDialogComponent(new DialogComponentColumnNameSelection(
+				TestIONodeModel.createPathColumnModel(), "Video path column",
+				0, StringValue.class));
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createParallelFilesModel(),
+				"Number of videos decoded in parallel", 1));
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createSegmentsModel(),
+				"Number of segments decoded in parallel per video", 1));
+		addDialogComponent(new DialogComponentBoolean(
+				TestIONodeModel.createSingleStackModel(),
+				"One XYT image per video"));
+		addDialogComponent(new DialogComponentStringSelection(
+				TestIONodeModel.createErrorPolicyModel(),
+				"If a video can not be read", TestIONodeModel.ERROR_FAIL,
+				TestIONodeModel.ERROR_SKIP));
+
+		createNewGroup("Frames");
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createStrideModel(), "Use every n-th frame", 1));
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createStartTimeModel(), "Start time [s]", 1));
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createEndTimeModel(),
+				"End time [s] (0 = end of video)", 1));
+		addDialogComponent(new DialogComponentNumber(
+				TestIONodeModel.createMaxFramesModel(),
+				"Maximum number of frames (0 = all)", 100));
+		addDialogComponent(new DialogComponentBoolean(
+				TestIONodeModel.createKeyFramesOnlyModel(),
+				"Decode key frames only"));
+		closeCurrentGroup();
+
+		final SettingsModelString roiMode = TestIONodeModel
+				.createRoiModeModel();
+		final SettingsModelString rectangles = TestIONodeModel
+				.createRectanglesModel();
+		final SettingsModelString plateFormat = TestIONodeModel
+				.createPlateFormatModel();
+		final SettingsModelString plateArea = TestIONodeModel
+				.createPlateAreaModel();
+
+		roiMode.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(final ChangeEvent e) {
+				final String mode = roiMode.getStringValue();
+				rectangles.setEnabled(TestIONodeModel.ROI_RECTANGLES
+						.equals(mode));
+				plateFormat.setEnabled(TestIONodeModel.ROI_PLATE.equals(mode));
+				plateArea.setEnabled(TestIONodeModel.ROI_PLATE.equals(mode));
+			}
+		});
+		rectangles.setEnabled(false);
+		plateFormat.setEnabled(false);
+		plateArea.setEnabled(false);
+
+		createNewGroup("Regions");
+		addDialogComponent(new DialogComponentStringSelection(roiMode,
+				"Crop", TestIONodeModel.ROI_MODES));
+		addDialogComponent(new DialogComponentString(rectangles,
+				"Rectangles (x,y,width,height; ...)"));
+		addDialogComponent(new DialogComponentStringSelection(plateFormat,
+				"Wells per plate", TestIONodeModel.PLATE_FORMATS));
+		addDialogComponent(new DialogComponentString(plateArea,
+				"Plate area (x,y,width,height, empty = whole frame)"));
+		closeCurrentGroup();
+
+		createNewGroup("Frame cache (leave empty to disable)");
+		addDialogComponent(new DialogComponentFileChooser(
+				TestIONodeModel.createCacheDirectoryModel(),
+				"video_cache_dir_history", JFileChooser.OPEN_DIALOG, true));
+		closeCurrentGroup();
+	}
 }
@@ -49,31 +49,53 @@
  */
 package org.knime.knip.leuven.nodes.reader;
 
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import net.imagej.ImgPlus;
-import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.array.ArrayImgFactory;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Fraction;
 
-import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.StringValue;
 import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.KNIMEConstants;
+import org.knime.core.node.NodeLogger;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
+import org.knime.core.util.ThreadPool;
 import org.knime.knip.base.data.img.ImgPlusCell;
 import org.knime.knip.base.data.img.ImgPlusCellFactory;
 
@@ -89,7 +111,183 @@ public class TestIONodeModel extends NodeModel {
 	private final SettingsModelStringArray m_files = new SettingsModelStringArray(
 			CFG_FILE_LIST, new String[] {});
 
-	private ImgPlusCellFactory m_imgPlusFactory;
+	/*
+	 * Number of frame buffers per conversion worker, i.e. how far the decoder
+	 * may run ahead.
+	 */
+	private static final int BUFFERS_PER_WORKER = 2;
+
+	/*
+	 * Upper bound for the memory held by the frame buffers of all videos
+	 * decoded in parallel.
+	 */
+	private static final long MAX_BUFFERED_BYTES = 128l * 1024 * 1024;
+
+	/*
+	 * Videos whose stream ends more than this (in microseconds) before their
+	 * stated duration are reported as truncated.
+	 */
+	private static final long TRUNCATION_TOLERANCE = 1000000l;
+
+	/*
+	 * Videos are only split into segments of at least this many frames.
+	 */
+	private static final int MIN_SEGMENT_FRAMES = 100;
+
+	private static final NodeLogger logger = NodeLogger
+			.getLogger(TestIONodeModel.class);
+
+	public static final String CFG_FRAME_STRIDE = "frame_stride";
+
+	public static final String CFG_START_TIME = "start_time";
+
+	public static final String CFG_END_TIME = "end_time";
+
+	public static final String CFG_MAX_FRAMES = "max_frames";
+
+	public static final String CFG_KEY_FRAMES_ONLY = "key_frames_only";
+
+	protected static SettingsModelIntegerBounded createStrideModel() {
+		return new SettingsModelIntegerBounded(CFG_FRAME_STRIDE, 1, 1,
+				Integer.MAX_VALUE);
+	}
+
+	protected static SettingsModelDoubleBounded createStartTimeModel() {
+		return new SettingsModelDoubleBounded(CFG_START_TIME, 0, 0,
+				Double.MAX_VALUE);
+	}
+
+	protected static SettingsModelDoubleBounded createEndTimeModel() {
+		return new SettingsModelDoubleBounded(CFG_END_TIME, 0, 0,
+				Double.MAX_VALUE);
+	}
+
+	protected static SettingsModelIntegerBounded createMaxFramesModel() {
+		return new SettingsModelIntegerBounded(CFG_MAX_FRAMES, 0, 0,
+				Integer.MAX_VALUE);
+	}
+
+	protected static SettingsModelBoolean createKeyFramesOnlyModel() {
+		return new SettingsModelBoolean(CFG_KEY_FRAMES_ONLY, false);
+	}
+
+	private final SettingsModelIntegerBounded m_stride = createStrideModel();
+
+	// seconds
+	private final SettingsModelDoubleBounded m_startTime = createStartTimeModel();
+
+	// seconds, 0 for the end of the video
+	private final SettingsModelDoubleBounded m_endTime = createEndTimeModel();
+
+	// 0 for all frames
+	private final SettingsModelIntegerBounded m_maxFrames = createMaxFramesModel();
+
+	private final SettingsModelBoolean m_keyFramesOnly = createKeyFramesOnlyModel();
+
+	public static final String CFG_PATH_COLUMN = "path_column";
+
+	public static final String CFG_PARALLEL_FILES = "parallel_files";
+
+	protected static SettingsModelString createPathColumnModel() {
+		return new SettingsModelString(CFG_PATH_COLUMN, null);
+	}
+
+	protected static SettingsModelIntegerBounded createParallelFilesModel() {
+		return new SettingsModelIntegerBounded(CFG_PARALLEL_FILES, 4, 1,
+				Integer.MAX_VALUE);
+	}
+
+	private final SettingsModelString m_pathColumn = createPathColumnModel();
+
+	private final SettingsModelIntegerBounded m_parallelFiles = createParallelFilesModel();
+
+	public static final String CFG_SINGLE_STACK = "single_stack";
+
+	protected static SettingsModelBoolean createSingleStackModel() {
+		return new SettingsModelBoolean(CFG_SINGLE_STACK, false);
+	}
+
+	// one XYT image per video instead of one row per frame
+	private final SettingsModelBoolean m_singleStack = createSingleStackModel();
+
+	public static final String CFG_CACHE_DIRECTORY = "cache_directory";
+
+	protected static SettingsModelString createCacheDirectoryModel() {
+		return new SettingsModelString(CFG_CACHE_DIRECTORY, "");
+	}
+
+	// empty to decode the videos on every execution
+	private final SettingsModelString m_cacheDirectory = createCacheDirectoryModel();
+
+	public static final String ROI_FULL_FRAME = "Full frame";
+
+	public static final String ROI_RECTANGLES = "Rectangles";
+
+	public static final String ROI_PLATE = "Well plate";
+
+	public static final String[] ROI_MODES = new String[] { ROI_FULL_FRAME,
+			ROI_RECTANGLES, ROI_PLATE };
+
+	public static final String[] PLATE_FORMATS = new String[] { "24", "48",
+			"96" };
+
+	public static final String CFG_ROI_MODE = "roi_mode";
+
+	public static final String CFG_ROI_RECTANGLES = "roi_rectangles";
+
+	public static final String CFG_PLATE_FORMAT = "plate_format";
+
+	public static final String CFG_PLATE_AREA = "plate_area";
+
+	protected static SettingsModelString createRoiModeModel() {
+		return new SettingsModelString(CFG_ROI_MODE, ROI_FULL_FRAME);
+	}
+
+	protected static SettingsModelString createRectanglesModel() {
+		return new SettingsModelString(CFG_ROI_RECTANGLES, "");
+	}
+
+	protected static SettingsModelString createPlateFormatModel() {
+		return new SettingsModelString(CFG_PLATE_FORMAT, "96");
+	}
+
+	protected static SettingsModelString createPlateAreaModel() {
+		return new SettingsModelString(CFG_PLATE_AREA, "");
+	}
+
+	private final SettingsModelString m_roiMode = createRoiModeModel();
+
+	// x,y,width,height separated by semicolons
+	private final SettingsModelString m_rectangles = createRectanglesModel();
+
+	// number of wells
+	private final SettingsModelString m_plateFormat = createPlateFormatModel();
+
+	// x,y,width,height, empty for the whole frame
+	private final SettingsModelString m_plateArea = createPlateAreaModel();
+
+	public static final String ERROR_FAIL = "Fail";
+
+	public static final String ERROR_SKIP = "Skip the rest of the video";
+
+	public static final String CFG_ERROR_POLICY = "error_policy";
+
+	protected static SettingsModelString createErrorPolicyModel() {
+		return new SettingsModelString(CFG_ERROR_POLICY, ERROR_FAIL);
+	}
+
+	// what to do if a video can not be read completely
+	private final SettingsModelString m_errorPolicy = createErrorPolicyModel();
+
+	public static final String CFG_SEGMENTS_PER_VIDEO = "segments_per_video";
+
+	protected static SettingsModelIntegerBounded createSegmentsModel() {
+		return new SettingsModelIntegerBounded(CFG_SEGMENTS_PER_VIDEO, 1, 1,
+				Integer.MAX_VALUE);
+	}
+
+	// number of parts of a video which are decoded in parallel
+	private final SettingsModelIntegerBounded m_segments = createSegmentsModel();
 
 	protected TestIONodeModel() {
 		super(1, 1);
@@ -98,84 +296,687 @@ public class TestIONodeModel extends NodeModel {
 	@Override
 	protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
 			throws InvalidSettingsException {
+		getPathColumnIndex(inSpecs[0]);
+		// the frame size is not known yet
+		getRegions(Integer.MAX_VALUE, Integer.MAX_VALUE);
 		return new DataTableSpec[] { createOutSpec() };
 	}
 
+	/*
+	 * Resolves the path column, chooses the first string column if none has
+	 * been selected yet.
+	 */
+	private int getPathColumnIndex(final DataTableSpec inSpec)
+			throws InvalidSettingsException {
+		int idx = inSpec.findColumnIndex(m_pathColumn.getStringValue());
+		if (idx < 0) {
+			for (int i = 0; i < inSpec.getNumColumns(); i++) {
+				if (inSpec.getColumnSpec(i).getType()
+						.isCompatible(StringValue.class)) {
+					idx = i;
+					m_pathColumn.setStringValue(inSpec.getColumnSpec(i)
+							.getName());
+					break;
+				}
+			}
+		}
+		if (idx < 0) {
+			throw new InvalidSettingsException(
+					"No string column with video paths available.");
+		}
+		return idx;
+	}
+
 	@Override
 	protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
 			final ExecutionContext exec) throws Exception {
 
-		m_imgPlusFactory = new ImgPlusCellFactory(exec);
-
-		final BufferedDataContainer container = exec
-				.createDataContainer(createOutSpec());
+		final int pathIdx = getPathColumnIndex(inData[0].getDataTableSpec());
 
-		if (inData[0].getRowCount() != 1) {
-			throw new IllegalStateException(
-					"Only one input file is supported since now!");
+		final List<String> paths = new ArrayList<String>();
+		final List<String> keys = new ArrayList<String>();
+		for (final DataRow row : inData[0]) {
+			final DataCell cell = row.getCell(pathIdx);
+			if (cell.isMissing()) {
+				setWarningMessage("Rows with missing paths have been ignored.");
+				continue;
+			}
+			paths.add(((StringValue) cell).getStringValue());
+			keys.add(row.getKey().getString());
 		}
 
-		final String path = ((StringValue) inData[0].iterator().next()
-				.getCell(0)).getStringValue();
+		if (paths.isEmpty()) {
+			final BufferedDataContainer container = exec
+					.createDataContainer(createOutSpec());
+			container.close();
+			return new BufferedDataTable[] { container.getTable() };
+		}
 
-		final int frameRate = 1; // use every x frames.
+		final int parallelFiles = Math.min(paths.size(),
+				m_parallelFiles.getIntValue());
+		final int numWorkers = Runtime.getRuntime().availableProcessors();
 
-		int timeIdx = 0;
-		final FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(path);
-		grabber.start();
-		int totalFrames = grabber.getLengthInFrames();
+		// conversion workers are shared by all videos, each video is decoded
+		// on its own thread. Both are taken from the global KNIME pool, the
+		// number of videos read at once is bounded by the permits as threads
+		// waiting for the workers do not count against the pool.
+		final ThreadPool workers = KNIMEConstants.GLOBAL_THREAD_POOL
+				.createSubPool(numWorkers);
+		final ThreadPool files = KNIMEConstants.GLOBAL_THREAD_POOL
+				.createSubPool(parallelFiles);
+		final Semaphore permits = new Semaphore(parallelFiles);
 
+		final List<Future<BufferedDataTable>> results = new ArrayList<Future<BufferedDataTable>>();
 		try {
-			while (true) {
-
-				if (timeIdx % frameRate == 0) {
-					createImgPlusAndAddToContainer(((DataBufferByte) grabber
-							.grab().getBufferedImage().getRaster()
-							.getDataBuffer()).getData(), container, timeIdx
-							/ frameRate);
-				} else{
-					grabber.grab();
+			for (int i = 0; i < paths.size(); i++) {
+				acquire(files, permits);
+				for (final Future<BufferedDataTable> result : results) {
+					if (result.isDone()) {
+						// fail before reading the remaining videos
+						FrameDecodePipeline.get(files, result);
+					}
 				}
 				exec.checkCanceled();
-	            exec.setProgress(timeIdx / (double)totalFrames, "Frame # " + timeIdx + " / " + totalFrames);
-				timeIdx++;
+
+				final String path = paths.get(i);
+				final String key = keys.get(i);
+				final ExecutionContext fileExec = exec
+						.createSubExecutionContext(1d / paths.size());
+				results.add(files.enqueue(new Callable<BufferedDataTable>() {
+					@Override
+					public BufferedDataTable call() throws Exception {
+						try {
+							return readVideo(path, key, fileExec, workers,
+									numWorkers / parallelFiles,
+									MAX_BUFFERED_BYTES / parallelFiles);
+						} finally {
+							permits.release();
+						}
+					}
+				}));
 			}
-		} catch (final Exception e) {
-			e.printStackTrace();
+
+			final BufferedDataTable[] tables = new BufferedDataTable[paths
+					.size()];
+			for (int i = 0; i < tables.length; i++) {
+				tables[i] = FrameDecodePipeline.get(files, results.get(i));
+			}
+
+			return new BufferedDataTable[] { exec.createConcatenateTable(
+					exec, tables) };
 		} finally {
-			grabber.stop();
+			for (final Future<BufferedDataTable> result : results) {
+				result.cancel(true);
+			}
+			files.shutdownNow();
+			workers.shutdownNow();
+		}
+	}
+
+	/*
+	 * Waits for a permit to read another video, without counting as a thread
+	 * of the pool meanwhile.
+	 */
+	private static void acquire(final ThreadPool pool, final Semaphore permits)
+			throws InterruptedException, ExecutionException {
+		pool.runInvisible(new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				permits.acquire();
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * Decodes one video into its own table, runs on one of the file threads.
+	 * Long videos are split into segments which are decoded in parallel.
+	 */
+	private BufferedDataTable readVideo(final String path, final String key,
+			final ExecutionContext exec, final ThreadPool workers,
+			final int numWorkers, final long maxBufferedBytes)
+			throws Exception {
+
+		final File videoFile = new File(path);
+		final FrameCache cache = m_cacheDirectory.getStringValue().isEmpty() ? null
+				: new FrameCache(new File(m_cacheDirectory.getStringValue()));
+		final String selection = getFrameSelection();
+
+		final List<VideoSegment> segments = new ArrayList<VideoSegment>();
+		ThreadPool segmentThreads = null;
+		final List<Future<BufferedDataTable>> results = new ArrayList<Future<BufferedDataTable>>();
+		try {
+			final int width;
+			final int height;
+			final int totalFrames;
+
+			final CachedFrameProducer cached = cache == null ? null : cache
+					.open(videoFile, selection);
+			if (cached != null) {
+				segments.add(new VideoSegment(0, cached));
+				width = cached.getWidth();
+				height = cached.getHeight();
+				totalFrames = Math.max(1, cached.getNumFrames());
+			} else {
+				final LuminanceFrameGrabber grabber = openGrabber(path);
+				if (grabber == null) {
+					final BufferedDataContainer container = exec
+							.createDataContainer(createOutSpec());
+					container.close();
+					return container.getTable();
+				}
+				width = grabber.getImageWidth();
+				height = grabber.getImageHeight();
+				totalFrames = expectedNumFrames(grabber);
+
+				final int numSegments = Math.max(1, Math.min(
+						m_segments.getIntValue(), totalFrames
+								/ MIN_SEGMENT_FRAMES));
+				final int stride = m_stride.getIntValue();
+				final double frameDuration = grabber.getFrameRate() > 0 ? 1000000d / grabber
+						.getFrameRate() : 1000000d;
+				final long startTime = toMicroseconds(m_startTime
+						.getDoubleValue());
+				final long endTime = m_endTime.getDoubleValue() > 0 ? toMicroseconds(m_endTime
+						.getDoubleValue()) : Long.MAX_VALUE;
+
+				for (int s = 0; s < numSegments; s++) {
+					final int first = (int) ((long) s * totalFrames / numSegments);
+					final int next = (int) ((long) (s + 1) * totalFrames / numSegments);
+					final boolean last = s == numSegments - 1;
+
+					// each segment seeks to its first frame and ends where the
+					// next one starts, the last one reads up to the end
+					final LuminanceFrameGrabber segmentGrabber = s == 0 ? grabber
+							: startGrabber(path);
+					final GrabberFrameProducer decoder = new GrabberFrameProducer(
+							segmentGrabber,
+							stride,
+							startTime
+									+ Math.round((double) first * stride
+											* frameDuration),
+							last ? endTime : Math.min(endTime, startTime
+									+ Math.round((double) next * stride
+											* frameDuration) - 1),
+							last ? (m_maxFrames.getIntValue() > 0 ? m_maxFrames
+									.getIntValue() - first : 0) : next - first,
+							m_keyFramesOnly.getBooleanValue());
+
+					final VideoSegment segment = new VideoSegment(first,
+							decoder);
+					segment.m_grabber = segmentGrabber;
+					segment.m_decoder = decoder;
+					segments.add(segment);
+
+					if (cache != null) {
+						segment.m_caching = cache.create(decoder, videoFile,
+								selection, width, height);
+						segment.m_producer = segment.m_caching;
+					}
+				}
+			}
+
+			// cropped regions, an empty list keeps the whole frame
+			final List<FrameRegion> regions = getRegions(width, height);
+
+			final int numBuffers = (int) Math.max(2, Math.min(
+					Math.max(1, numWorkers / segments.size())
+							* BUFFERS_PER_WORKER, maxBufferedBytes
+							/ segments.size() / (width * height)));
+
+			final ThroughputReporter reporter = new ThroughputReporter(exec,
+					videoFile.getName(), totalFrames);
+
+			final List<BufferedDataTable> tables = new ArrayList<BufferedDataTable>();
+			if (segments.size() == 1) {
+				tables.add(segments.get(0).read(path, key, exec, workers,
+						numBuffers, width, height, regions, reporter));
+			} else {
+				segmentThreads = KNIMEConstants.GLOBAL_THREAD_POOL
+						.createSubPool(segments.size());
+				for (final VideoSegment segment : segments) {
+					results.add(segmentThreads
+							.enqueue(new Callable<BufferedDataTable>() {
+								@Override
+								public BufferedDataTable call()
+										throws Exception {
+									return segment.read(path, key, exec,
+											workers, numBuffers, width,
+											height, regions, reporter);
+								}
+							}));
+				}
+				for (final Future<BufferedDataTable> result : results) {
+					tables.add(FrameDecodePipeline.get(segmentThreads, result));
+				}
+			}
+
+			boolean complete = true;
+			for (final VideoSegment segment : segments) {
+				complete &= segment.m_complete;
+			}
+
+			final VideoSegment lastSegment = segments.get(segments.size() - 1);
+			if (complete && lastSegment.m_decoder != null
+					&& isTruncated(lastSegment.m_grabber, lastSegment.m_decoder)) {
+				complete = false;
+				final String msg = "Decoding of " + path + " stopped at "
+						+ lastSegment.m_grabber.getTimestamp() / 1000000
+						+ " s of " + lastSegment.m_grabber.getLengthInTime()
+						/ 1000000 + " s, the file may be truncated or corrupt.";
+				handleReadError(msg, new IOException(msg));
+			}
+
+			if (complete && lastSegment.m_caching != null) {
+				final List<CachingFrameProducer> parts = new ArrayList<CachingFrameProducer>();
+				for (final VideoSegment segment : segments) {
+					parts.add(segment.m_caching);
+				}
+				CachingFrameProducer.commit(parts);
+			}
+			logger.info("Read " + reporter.getSummary()
+					+ (cached != null ? " from the frame cache." : "."));
+
+			if (m_singleStack.getBooleanValue()) {
+				tables.add(createStackTable(path, key, exec, width, height,
+						regions, segments));
+			}
+
+			if (tables.size() == 1) {
+				return tables.get(0);
+			}
+			return exec.createConcatenateTable(exec,
+					tables.toArray(new BufferedDataTable[tables.size()]));
+		} finally {
+			if (segmentThreads != null) {
+				// the segments must not use their grabbers anymore
+				for (final Future<BufferedDataTable> result : results) {
+					result.cancel(true);
+				}
+				segmentThreads.shutdownNow();
+				segmentThreads.waitForTermination();
+			}
+			for (final VideoSegment segment : segments) {
+				segment.close();
+			}
+		}
+	}
+
+	/*
+	 * Stacks the frames of all segments of a video along the time axis, one
+	 * image per region.
+	 */
+	private BufferedDataTable createStackTable(final String path,
+			final String key, final ExecutionContext exec, final int width,
+			final int height, final List<FrameRegion> regions,
+			final List<VideoSegment> segments) throws IOException {
+
+		final ImgPlusCellFactory imgPlusFactory = new ImgPlusCellFactory(exec);
+		final BufferedDataContainer container = exec
+				.createDataContainer(createOutSpec());
+		final StringCell pathCell = new StringCell(path);
+
+		for (int i = 0; i < Math.max(1, regions.size()); i++) {
+			final List<ByteArray> stack = new ArrayList<ByteArray>();
+			for (final VideoSegment segment : segments) {
+				stack.addAll(segment.m_stacks.get(i));
+			}
+
+			if (stack.isEmpty()) {
+				setWarningMessage("No frames have been read from " + path
+						+ ".");
+			} else if (regions.isEmpty()) {
+				container.addRowToTable(new DefaultRow(key, imgPlusFactory
+						.createCell(createStack(stack, width, height, path)),
+						pathCell));
+			} else {
+				final FrameRegion region = regions.get(i);
+				container.addRowToTable(new DefaultRow(key + "#"
+						+ region.getName(), imgPlusFactory
+						.createCell(createStack(stack, region.getWidth(),
+								region.getHeight(), path)), pathCell,
+						new StringCell(region.getName())));
+			}
 		}
 
 		container.close();
+		return container.getTable();
+	}
 
-		return new BufferedDataTable[] { container.getTable() };
+	/*
+	 * Opens a video, applies the error policy if this fails.
+	 */
+	private LuminanceFrameGrabber openGrabber(final String path)
+			throws Exception {
+		try {
+			return startGrabber(path);
+		} catch (final Exception e) {
+			handleReadError("Could not open " + path + ": " + e.getMessage(),
+					e);
+			return null;
+		}
 	}
 
-	private void createImgPlusAndAddToContainer(final byte[] buffer,
-			final BufferedDataContainer container, final int idx)
-			throws IOException {
+	private static LuminanceFrameGrabber startGrabber(final String path)
+			throws Exception {
+		final LuminanceFrameGrabber grabber = new LuminanceFrameGrabber(path);
+		try {
+			grabber.start();
+			if (grabber.getImageWidth() <= 0 || grabber.getImageHeight() <= 0) {
+				throw new IllegalStateException(
+						"Could not determine the frame size of " + path + ".");
+			}
+		} catch (final Exception e) {
+			grabber.release();
+			throw e;
+		}
+		return grabber;
+	}
+
+	/**
+	 * Consecutive frames of a video which are decoded by a pipeline of their
+	 * own.
+	 */
+	private class VideoSegment {
+
+		// index of the first frame of the segment in the video
+		private final int m_first;
+
+		private FrameDecodePipeline.FrameProducer m_producer;
+
+		// null if the frames are read from the cache
+		private LuminanceFrameGrabber m_grabber;
 
-		final int width = 1024;
-		final int height = 768;
+		private GrabberFrameProducer m_decoder;
 
-		final ArrayImg<UnsignedByteType, ?> img = new ArrayImgFactory<UnsignedByteType>()
-				.create(new long[] { width, height }, new UnsignedByteType());
+		// null if the frames are not cached
+		private CachingFrameProducer m_caching;
 
-		final byte[] update = ((ByteArray) img.update(null))
-				.getCurrentStorageArray();
+		// planes of the XYT images, one stack per region
+		private final List<List<ByteArray>> m_stacks = new ArrayList<List<ByteArray>>();
 
-		for (int i = 0; i < update.length; i++) {
-			update[i] = buffer[i * 3];
+		private boolean m_complete = true;
+
+		VideoSegment(final int first,
+				final FrameDecodePipeline.FrameProducer producer) {
+			m_first = first;
+			m_producer = producer;
 		}
 
-		container.addRowToTable(new DefaultRow("" + idx, m_imgPlusFactory
-				.createCell(new ImgPlus<>(img))));
+		/*
+		 * Decodes the frames of the segment into a table of its own, or into
+		 * the stacks in single stack mode.
+		 */
+		BufferedDataTable read(final String path, final String key,
+				final ExecutionContext exec, final ThreadPool workers,
+				final int numBuffers, final int width, final int height,
+				final List<FrameRegion> regions,
+				final ThroughputReporter reporter) throws Exception {
+
+			final ImgPlusCellFactory imgPlusFactory = new ImgPlusCellFactory(
+					exec);
+			final BufferedDataContainer container = exec
+					.createDataContainer(createOutSpec());
+			final StringCell pathCell = new StringCell(path);
+
+			final int frameSize = width * height;
+			final int numPlanes = Math.max(1, regions.size());
+			final List<List<ByteArray>> stacks = m_stacks;
+			if (m_singleStack.getBooleanValue()) {
+				for (int i = 0; i < numPlanes; i++) {
+					stacks.add(new ArrayList<ByteArray>());
+				}
+			}
+
+			final FrameDecodePipeline<ConvertedFrame> pipeline = new FrameDecodePipeline<ConvertedFrame>(
+					m_producer, new FrameBufferRing(numBuffers, frameSize),
+					new FrameDecodePipeline.FrameConverter<ConvertedFrame>() {
+						@Override
+						public ConvertedFrame convert(final FrameBuffer buffer) {
+							// the buffer is recycled afterwards, hence each
+							// plane is a copy which is kept alive by the image
+							final byte[][] planes = new byte[numPlanes][];
+							if (regions.isEmpty()) {
+								planes[0] = Arrays.copyOf(buffer.getData(),
+										frameSize);
+							} else {
+								for (int i = 0; i < numPlanes; i++) {
+									planes[i] = regions.get(i).crop(
+											buffer.getData(), width);
+								}
+							}
+							return new ConvertedFrame(m_first
+									+ buffer.getIndex(), buffer
+									.getFrameNumber(), planes);
+						}
+					}, workers);
+
+			try {
+				pipeline.run(new FrameDecodePipeline.FrameConsumer<ConvertedFrame>() {
+					@Override
+					public void consume(final ConvertedFrame frame)
+							throws Exception {
+						for (int i = 0; i < numPlanes; i++) {
+							if (!stacks.isEmpty()) {
+								stacks.get(i).add(
+										new ByteArray(frame.m_planes[i]));
+							} else if (regions.isEmpty()) {
+								container.addRowToTable(new DefaultRow(key
+										+ "#" + frame.m_index, imgPlusFactory
+										.createCell(createImgPlus(
+												frame.m_planes[i], width,
+												height)), pathCell,
+										new IntCell(frame.m_index)));
+							} else {
+								final FrameRegion region = regions.get(i);
+								container.addRowToTable(new DefaultRow(key
+										+ "#" + frame.m_index + "#"
+										+ region.getName(), imgPlusFactory
+										.createCell(createImgPlus(
+												frame.m_planes[i],
+												region.getWidth(),
+												region.getHeight())),
+										pathCell, new StringCell(region
+												.getName()), new IntCell(
+												frame.m_index)));
+							}
+						}
 
+						exec.checkCanceled();
+						reporter.frameDone();
+					}
+				});
+			} catch (final FrameDecodeException e) {
+				m_complete = false;
+				handleReadError("Reading " + path + " stopped after "
+						+ (m_first + e.getNumFrames()) + " frames: "
+						+ e.getCause().getMessage(), e);
+			}
+
+			container.close();
+			return container.getTable();
+		}
+
+		void close() throws Exception {
+			if (m_caching != null) {
+				m_caching.close();
+			}
+			if (m_producer instanceof CachedFrameProducer) {
+				((CachedFrameProducer) m_producer).close();
+			}
+			if (m_grabber != null) {
+				m_grabber.stop();
+			}
+		}
+	}
+
+	/*
+	 * Best guess of the number of frames which will be read with the current
+	 * settings.
+	 */
+	private int expectedNumFrames(final LuminanceFrameGrabber grabber) {
+		final double frameRate = grabber.getFrameRate();
+		final int length = grabber.getLengthInFrames();
+
+		final int first = Math.min(length,
+				(int) (m_startTime.getDoubleValue() * frameRate));
+		final int last = m_endTime.getDoubleValue() > 0 ? Math.min(length,
+				(int) (m_endTime.getDoubleValue() * frameRate)) : length;
+
+		int numFrames = (last - first + m_stride.getIntValue() - 1)
+				/ m_stride.getIntValue();
+		if (m_maxFrames.getIntValue() > 0) {
+			numFrames = Math.min(numFrames, m_maxFrames.getIntValue());
+		}
+		return Math.max(1, numFrames);
+	}
+
+	/*
+	 * Applies the error policy to a video which could not be read (completely).
+	 */
+	private void handleReadError(final String msg, final Exception e)
+			throws Exception {
+		if (ERROR_FAIL.equals(m_errorPolicy.getStringValue())) {
+			throw e;
+		}
+		logger.warn(msg, e);
+		setWarningMessage(msg + " Frames read up to then are kept.");
+	}
+
+	/*
+	 * The grabber reports the end of the stream on read errors, too, hence a
+	 * stream which ends well before the duration stated in the container is
+	 * probably damaged. Key frames may be far apart, so no statement is
+	 * possible in key frame mode.
+	 */
+	private boolean isTruncated(final LuminanceFrameGrabber grabber,
+			final GrabberFrameProducer decoder) {
+		final long length = grabber.getLengthInTime();
+		if (!decoder.reachedEndOfStream() || m_keyFramesOnly.getBooleanValue()
+				|| length <= 0 || grabber.getFrameRate() <= 0) {
+			return false;
+		}
+		final long tolerance = Math.max(TRUNCATION_TOLERANCE,
+				Math.round(2 * m_stride.getIntValue() * 1000000d
+						/ grabber.getFrameRate()));
+		return grabber.getTimestamp() < length - tolerance;
+	}
+
+	/*
+	 * Describes which frames are read from a video, part of the cache key.
+	 */
+	private String getFrameSelection() {
+		return m_stride.getIntValue() + "|" + m_startTime.getDoubleValue()
+				+ "|" + m_endTime.getDoubleValue() + "|"
+				+ m_maxFrames.getIntValue() + "|"
+				+ m_keyFramesOnly.getBooleanValue();
+	}
+
+	private static long toMicroseconds(final double seconds) {
+		return Math.round(seconds * 1000000d);
+	}
+
+	private static ImgPlus<UnsignedByteType> createImgPlus(final byte[] plane,
+			final int width, final int height) {
+		return new ImgPlus<UnsignedByteType>(ArrayImgs.unsignedBytes(plane,
+				width, height));
+	}
+
+	/*
+	 * Stacks the decoded frames along the time axis. The planes are used as
+	 * they are, i.e. the frames are not copied once more.
+	 */
+	private static ImgPlus<UnsignedByteType> createStack(
+			final List<ByteArray> planes, final int width, final int height,
+			final String path) {
+
+		final PlanarImg<UnsignedByteType, ByteArray> img = new PlanarImg<UnsignedByteType, ByteArray>(
+				planes, new long[] { width, height, planes.size() },
+				new Fraction());
+		img.setLinkedType(new UnsignedByteType(img));
+
+		final ImgPlus<UnsignedByteType> imgPlus = new ImgPlus<UnsignedByteType>(
+				img, new File(path).getName(), new AxisType[] { Axes.X,
+						Axes.Y, Axes.TIME });
+		imgPlus.setSource(path);
+		return imgPlus;
+	}
+
+	/**
+	 * Result of converting one frame on a pipeline worker.
+	 */
+	private static class ConvertedFrame {
+
+		private final int m_index;
+
+		private final int m_frameNumber;
+
+		// the whole frame or one plane per region
+		private final byte[][] m_planes;
+
+		ConvertedFrame(final int index, final int frameNumber,
+				final byte[][] planes) {
+			m_index = index;
+			m_frameNumber = frameNumber;
+			m_planes = planes;
+		}
 	}
 
 	private DataTableSpec createOutSpec() {
-		return new DataTableSpec(new DataColumnSpecCreator("Image",
-				ImgPlusCell.TYPE).createSpec());
+		final List<DataColumnSpec> columns = new ArrayList<DataColumnSpec>();
+		columns.add(new DataColumnSpecCreator("Image", ImgPlusCell.TYPE)
+				.createSpec());
+		columns.add(new DataColumnSpecCreator("Source", StringCell.TYPE)
+				.createSpec());
+		if (!ROI_FULL_FRAME.equals(m_roiMode.getStringValue())) {
+			columns.add(new DataColumnSpecCreator("Region", StringCell.TYPE)
+					.createSpec());
+		}
+		if (!m_singleStack.getBooleanValue()) {
+			columns.add(new DataColumnSpecCreator("Frame", IntCell.TYPE)
+					.createSpec());
+		}
+		return new DataTableSpec(columns.toArray(new DataColumnSpec[columns
+				.size()]));
+	}
+
+	/*
+	 * Regions cropped from frames of the given size, empty to keep the whole
+	 * frame.
+	 */
+	private List<FrameRegion> getRegions(final int width, final int height)
+			throws InvalidSettingsException {
+		final List<FrameRegion> regions;
+		try {
+			if (ROI_RECTANGLES.equals(m_roiMode.getStringValue())) {
+				regions = FrameRegion.parseRectangles(m_rectangles
+						.getStringValue());
+				if (regions.isEmpty()) {
+					throw new InvalidSettingsException(
+							"No rectangles have been specified.");
+				}
+			} else if (ROI_PLATE.equals(m_roiMode.getStringValue())) {
+				final FrameRegion plate = m_plateArea.getStringValue().trim()
+						.isEmpty() ? new FrameRegion("Plate", 0, 0, width,
+						height) : FrameRegion.parseRectangle("Plate",
+						m_plateArea.getStringValue());
+				regions = FrameRegion.plateGrid(
+						Integer.parseInt(m_plateFormat.getStringValue()), plate);
+			} else {
+				return Collections.emptyList();
+			}
+		} catch (final IllegalArgumentException e) {
+			throw new InvalidSettingsException(e.getMessage(), e);
+		}
+
+		for (final FrameRegion region : regions) {
+			if (!region.fits(width, height)) {
+				throw new InvalidSettingsException(region
+						+ " exceeds the frame size " + width + "x" + height
+						+ ".");
+			}
+		}
+		return regions;
 	}
 
 	/**
@@ -211,6 +1012,21 @@ public class TestIONodeModel extends NodeModel {
 	 */
 	@Override
 	protected void saveSettingsTo(final NodeSettingsWO settings) {
+		m_stride.saveSettingsTo(settings);
+		m_startTime.saveSettingsTo(settings);
+		m_endTime.saveSettingsTo(settings);
+		m_maxFrames.saveSettingsTo(settings);
+		m_keyFramesOnly.saveSettingsTo(settings);
+		m_pathColumn.saveSettingsTo(settings);
+		m_parallelFiles.saveSettingsTo(settings);
+		m_singleStack.saveSettingsTo(settings);
+		m_cacheDirectory.saveSettingsTo(settings);
+		m_roiMode.saveSettingsTo(settings);
+		m_rectangles.saveSettingsTo(settings);
+		m_plateFormat.saveSettingsTo(settings);
+		m_plateArea.saveSettingsTo(settings);
+		m_errorPolicy.saveSettingsTo(settings);
+		m_segments.saveSettingsTo(settings);
 	}
 
 	/**
@@ -219,6 +1035,21 @@ public class TestIONodeModel extends NodeModel {
 	@Override
 	protected void validateSettings(final NodeSettingsRO settings)
 			throws InvalidSettingsException {
+		validateOptional(m_stride, CFG_FRAME_STRIDE, settings);
+		validateOptional(m_startTime, CFG_START_TIME, settings);
+		validateOptional(m_endTime, CFG_END_TIME, settings);
+		validateOptional(m_maxFrames, CFG_MAX_FRAMES, settings);
+		validateOptional(m_keyFramesOnly, CFG_KEY_FRAMES_ONLY, settings);
+		validateOptional(m_pathColumn, CFG_PATH_COLUMN, settings);
+		validateOptional(m_parallelFiles, CFG_PARALLEL_FILES, settings);
+		validateOptional(m_singleStack, CFG_SINGLE_STACK, settings);
+		validateOptional(m_cacheDirectory, CFG_CACHE_DIRECTORY, settings);
+		validateOptional(m_roiMode, CFG_ROI_MODE, settings);
+		validateOptional(m_rectangles, CFG_ROI_RECTANGLES, settings);
+		validateOptional(m_plateFormat, CFG_PLATE_FORMAT, settings);
+		validateOptional(m_plateArea, CFG_PLATE_AREA, settings);
+		validateOptional(m_errorPolicy, CFG_ERROR_POLICY, settings);
+		validateOptional(m_segments, CFG_SEGMENTS_PER_VIDEO, settings);
 	}
 
 	/**
@@ -227,6 +1058,41 @@ public class TestIONodeModel extends NodeModel {
 	@Override
 	protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
 			throws InvalidSettingsException {
+		loadOptional(m_stride, CFG_FRAME_STRIDE, settings);
+		loadOptional(m_startTime, CFG_START_TIME, settings);
+		loadOptional(m_endTime, CFG_END_TIME, settings);
+		loadOptional(m_maxFrames, CFG_MAX_FRAMES, settings);
+		loadOptional(m_keyFramesOnly, CFG_KEY_FRAMES_ONLY, settings);
+		loadOptional(m_pathColumn, CFG_PATH_COLUMN, settings);
+		loadOptional(m_parallelFiles, CFG_PARALLEL_FILES, settings);
+		loadOptional(m_singleStack, CFG_SINGLE_STACK, settings);
+		loadOptional(m_cacheDirectory, CFG_CACHE_DIRECTORY, settings);
+		loadOptional(m_roiMode, CFG_ROI_MODE, settings);
+		loadOptional(m_rectangles, CFG_ROI_RECTANGLES, settings);
+		loadOptional(m_plateFormat, CFG_PLATE_FORMAT, settings);
+		loadOptional(m_plateArea, CFG_PLATE_AREA, settings);
+		loadOptional(m_errorPolicy, CFG_ERROR_POLICY, settings);
+		loadOptional(m_segments, CFG_SEGMENTS_PER_VIDEO, settings);
+	}
+
+	/*
+	 * Settings which are missing in workflows saved by older versions of the
+	 * node keep their defaults.
+	 */
+	private static void validateOptional(final SettingsModel model,
+			final String key, final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		if (settings.containsKey(key)) {
+			model.validateSettings(settings);
+		}
+	}
+
+	private static void loadOptional(final SettingsModel model,
+			final String key, final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		if (settings.containsKey(key)) {
+			model.loadSettingsFrom(settings);
+		}
 	}
 
 }
\ No newline at end of file
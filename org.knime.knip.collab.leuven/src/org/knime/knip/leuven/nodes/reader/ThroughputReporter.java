@@ -0,0 +1,109 @@
+package org.knime.knip.leuven.nodes.reader;
+
+import org.knime.core.node.ExecutionMonitor;
+
+/**
+ * Reports the progress of reading a video including the decoding speed and the
+ * estimated remaining time. The progress message is updated a few times per
+ * second only, not for every frame. The frames of a video may be counted from
+ * several threads.
+ */
+public class ThroughputReporter {
+
+	/*
+	 * Minimum time between two progress updates in nanoseconds.
+	 */
+	private static final long UPDATE_INTERVAL = 250 * 1000000L;
+
+	private final ExecutionMonitor m_exec;
+
+	private final String m_name;
+
+	private final int m_expectedFrames;
+
+	private final long m_start = System.nanoTime();
+
+	private long m_lastUpdate = m_start;
+
+	private int m_numFrames = 0;
+
+	/**
+	 * @param exec
+	 *            receives the progress
+	 * @param name
+	 *            name of the video, used in the progress message
+	 * @param expectedFrames
+	 *            expected number of frames, used for the progress and the
+	 *            remaining time
+	 */
+	public ThroughputReporter(final ExecutionMonitor exec, final String name,
+			final int expectedFrames) {
+		m_exec = exec;
+		m_name = name;
+		m_expectedFrames = Math.max(1, expectedFrames);
+	}
+
+	/**
+	 * Counts one more frame.
+	 */
+	public synchronized void frameDone() {
+		m_numFrames++;
+
+		final long now = System.nanoTime();
+		if (now - m_lastUpdate < UPDATE_INTERVAL) {
+			return;
+		}
+		m_lastUpdate = now;
+
+		final double fps = getFramesPerSecond();
+		final StringBuilder msg = new StringBuilder();
+		msg.append("Frame ").append(m_numFrames).append(" / ")
+				.append(m_expectedFrames).append(" of ").append(m_name)
+				.append(String.format(" - %.1f fps", fps));
+		if (fps > 0 && m_numFrames < m_expectedFrames) {
+			msg.append(", ").append(
+					formatTime((m_expectedFrames - m_numFrames) / fps))
+					.append(" remaining");
+		}
+
+		m_exec.setProgress(Math.min(1, m_numFrames / (double) m_expectedFrames),
+				msg.toString());
+	}
+
+	/**
+	 * @return the number of frames counted so far
+	 */
+	public synchronized int getNumFrames() {
+		return m_numFrames;
+	}
+
+	/**
+	 * @return the average number of frames per second since construction
+	 */
+	public synchronized double getFramesPerSecond() {
+		final double seconds = getElapsedSeconds();
+		return seconds > 0 ? m_numFrames / seconds : 0;
+	}
+
+	/**
+	 * @return a summary of the number of frames, the elapsed time and the
+	 *         average speed
+	 */
+	public synchronized String getSummary() {
+		return String.format("%d frames of %s in %s (%.1f fps)", m_numFrames,
+				m_name, formatTime(getElapsedSeconds()), getFramesPerSecond());
+	}
+
+	private double getElapsedSeconds() {
+		return (System.nanoTime() - m_start) / 1e9;
+	}
+
+	private static String formatTime(final double seconds) {
+		final long s = Math.round(seconds);
+		if (s >= 3600) {
+			return String.format("%d:%02d:%02d", s / 3600, (s / 60) % 60,
+					s % 60);
+		}
+		return String.format("%d:%02d", s / 60, s % 60);
+	}
+}
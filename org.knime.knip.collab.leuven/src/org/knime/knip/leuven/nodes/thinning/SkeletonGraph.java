@@ -0,0 +1,92 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+/**
+ * Compact description of a skeleton computed by {@link Thinning}: its end
+ * points (at most one neighbor), its junctions (three or more neighbors) and
+ * the longest path through it. Neighbors are 8-connected in images and
+ * 26-connected in volumes. The coordinates are positions in the thinned
+ * image, stored one after the other in flat arrays.
+ */
+public class SkeletonGraph {
+
+	private final int m_numDimensions;
+
+	private final long[] m_endpoints;
+
+	private final long[] m_junctions;
+
+	private final long[] m_longestPath;
+
+	SkeletonGraph(final int numDimensions, final long[] endpoints,
+			final long[] junctions, final long[] longestPath) {
+		m_numDimensions = numDimensions;
+		m_endpoints = endpoints;
+		m_junctions = junctions;
+		m_longestPath = longestPath;
+	}
+
+	/**
+	 * @return the number of dimensions of the coordinates
+	 */
+	public int numDimensions() {
+		return m_numDimensions;
+	}
+
+	/**
+	 * @return the number of end points
+	 */
+	public int getNumEndpoints() {
+		return m_endpoints.length / m_numDimensions;
+	}
+
+	/**
+	 * @param index
+	 *            index of the end point
+	 * @param position
+	 *            receives the coordinates of the end point
+	 */
+	public void getEndpoint(final int index, final long[] position) {
+		System.arraycopy(m_endpoints, index * m_numDimensions, position, 0,
+				m_numDimensions);
+	}
+
+	/**
+	 * @return the number of junctions
+	 */
+	public int getNumJunctions() {
+		return m_junctions.length / m_numDimensions;
+	}
+
+	/**
+	 * @param index
+	 *            index of the junction
+	 * @param position
+	 *            receives the coordinates of the junction
+	 */
+	public void getJunction(final int index, final long[] position) {
+		System.arraycopy(m_junctions, index * m_numDimensions, position, 0,
+				m_numDimensions);
+	}
+
+	/**
+	 * @return the number of points of the longest path, 0 if the skeleton is
+	 *         empty
+	 */
+	public int getLongestPathLength() {
+		return m_longestPath.length / m_numDimensions;
+	}
+
+	/**
+	 * The points of the longest path are ordered from one end to the other,
+	 * the ends are end points unless the path runs along a cycle.
+	 *
+	 * @param index
+	 *            index of the point on the longest path
+	 * @param position
+	 *            receives the coordinates of the point
+	 */
+	public void getPathPoint(final int index, final long[] position) {
+		System.arraycopy(m_longestPath, index * m_numDimensions, position, 0,
+				m_numDimensions);
+	}
+}
@@ -0,0 +1,20 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.knip.base.data.img.ImgPlusValue;
+
+/**
+ * Dialog for the node Skeleton Graph.
+ */
+public class SkeletonGraphNodeDialog extends DefaultNodeSettingsPane {
+
+	@SuppressWarnings("unchecked")
+	protected SkeletonGraphNodeDialog() {
+		super();
+
+		addDialogComponent(new DialogComponentColumnNameSelection(
+				SkeletonGraphNodeModel.createColumnModel(), "Image column", 0,
+				ImgPlusValue.class));
+	}
+}
@@ -0,0 +1,39 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import org.knime.core.node.NodeDialogPane;
+import org.knime.core.node.NodeFactory;
+import org.knime.core.node.NodeView;
+
+/**
+ * Factory for the node Skeleton Graph.
+ */
+public class SkeletonGraphNodeFactory extends
+		NodeFactory<SkeletonGraphNodeModel> {
+
+	@Override
+	public SkeletonGraphNodeModel createNodeModel() {
+		return new SkeletonGraphNodeModel();
+	}
+
+	@Override
+	public int getNrNodeViews() {
+		return 0;
+	}
+
+	@Override
+	public NodeView<SkeletonGraphNodeModel> createNodeView(
+			final int viewIndex, final SkeletonGraphNodeModel nodeModel) {
+		return null;
+	}
+
+	@Override
+	public boolean hasDialog() {
+		return true;
+	}
+
+	@Override
+	public NodeDialogPane createNodeDialogPane() {
+		return new SkeletonGraphNodeDialog();
+	}
+
+}
@@ -0,0 +1,223 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ImgPlus;
+import net.imglib2.img.Img;
+import net.imglib2.type.logic.BitType;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.collection.CollectionCellFactory;
+import org.knime.core.data.collection.ListCell;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.LongCell;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.ExecutionMonitor;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeModel;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.knip.base.data.img.ImgPlusValue;
+import org.knime.knip.core.KNIPGateway;
+
+/**
+ * Node Model for node Skeleton Graph. Thins the images of a column with Lee94
+ * and appends the end points, the junctions and the longest path of each
+ * skeleton (see {@link SkeletonGraph}). Each of them is appended as one list
+ * column per coordinate, the Z lists are missing for two-dimensional images.
+ */
+public class SkeletonGraphNodeModel extends NodeModel {
+
+	public static final String CFG_COLUMN = "column";
+
+	/** names of the parts of the graph, in the order of the columns */
+	private static final String[] PARTS = { "Endpoints", "Junctions",
+			"Longest Path" };
+
+	/** names of the coordinates */
+	private static final String[] AXES = { "X", "Y", "Z" };
+
+	private SettingsModelString m_column = createColumnModel();
+
+	protected SkeletonGraphNodeModel() {
+		super(1, 1);
+	}
+
+	protected static SettingsModelString createColumnModel() {
+		return new SettingsModelString(CFG_COLUMN, "");
+	}
+
+	/**
+	 * @return the index of the image column
+	 * @throws InvalidSettingsException
+	 *             if the column does not exist or holds no images
+	 */
+	private int getColumnIndex(final DataTableSpec inSpec)
+			throws InvalidSettingsException {
+		final String name = m_column.getStringValue();
+		final int index = name == null || name.isEmpty() ? -1 : inSpec
+				.findColumnIndex(name);
+		if (index < 0
+				|| !inSpec.getColumnSpec(index).getType()
+						.isCompatible(ImgPlusValue.class)) {
+			throw new InvalidSettingsException("Select a column of images, \""
+					+ name + "\" is not one.");
+		}
+		return index;
+	}
+
+	private static DataTableSpec createOutSpec(final DataTableSpec inSpec) {
+		final DataColumnSpec[] graphSpecs = new DataColumnSpec[PARTS.length
+				* AXES.length];
+		final DataType listType = ListCell.getCollectionType(LongCell.TYPE);
+		int c = 0;
+		for (final String part : PARTS) {
+			for (final String axis : AXES) {
+				graphSpecs[c++] = new DataColumnSpecCreator(part + " " + axis,
+						listType).createSpec();
+			}
+		}
+		return new DataTableSpec(inSpec, new DataTableSpec(graphSpecs));
+	}
+
+	@Override
+	protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
+			throws InvalidSettingsException {
+		getColumnIndex(inSpecs[0]);
+		return new DataTableSpec[] { createOutSpec(inSpecs[0]) };
+	}
+
+	@Override
+	protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
+			final ExecutionContext exec) throws Exception {
+		final BufferedDataTable table = inData[0];
+		final int column = getColumnIndex(table.getDataTableSpec());
+		final int numColumns = table.getDataTableSpec().getNumColumns();
+		final BufferedDataContainer container = exec
+				.createDataContainer(createOutSpec(table.getDataTableSpec()));
+
+		// the working buffers are reused from row to row and released with
+		// the thinning at the end of the execution
+		final Thinning<Img<BitType>> thinning = new Thinning<Img<BitType>>(
+				null, true, new ThinningBuffers());
+		final DataCell[] cells = new DataCell[numColumns + PARTS.length
+				* AXES.length];
+		final int rowCount = table.getRowCount();
+		int counter = 0;
+		for (final DataRow row : table) {
+			for (int i = 0; i < numColumns; i++) {
+				cells[i] = row.getCell(i);
+			}
+			final DataCell cell = row.getCell(column);
+			if (cell.isMissing()) {
+				for (int i = numColumns; i < cells.length; i++) {
+					cells[i] = DataType.getMissingCell();
+				}
+			} else {
+				@SuppressWarnings("unchecked")
+				final ImgPlus<BitType> img = ((ImgPlusValue<BitType>) cell)
+						.getImgPlus();
+				thinning.compute(img, KNIPGateway.ops().create().img(img));
+				setGraphCells(thinning.getSkeletonGraph(), cells, numColumns);
+			}
+			container.addRowToTable(new DefaultRow(row.getKey(), cells));
+
+			counter++;
+			exec.checkCanceled();
+			exec.setProgress(counter / (double) rowCount, "Adding row "
+					+ counter);
+		}
+		container.close();
+		return new BufferedDataTable[] { container.getTable() };
+	}
+
+	/**
+	 * Writes the coordinate lists of a graph into the cells of a row.
+	 * 
+	 * @param graph
+	 *            the skeleton graph
+	 * @param cells
+	 *            the cells of the row
+	 * @param first
+	 *            index of the first graph column
+	 */
+	private static void setGraphCells(final SkeletonGraph graph,
+			final DataCell[] cells, final int first) {
+		final int numDims = graph.numDimensions();
+		final long[] position = new long[numDims];
+		for (int part = 0; part < PARTS.length; part++) {
+			final int numPoints = part == 0 ? graph.getNumEndpoints()
+					: part == 1 ? graph.getNumJunctions() : graph
+							.getLongestPathLength();
+			final List<List<LongCell>> coordinates = new ArrayList<List<LongCell>>();
+			for (int d = 0; d < numDims; d++) {
+				coordinates.add(new ArrayList<LongCell>(numPoints));
+			}
+			for (int p = 0; p < numPoints; p++) {
+				if (part == 0) {
+					graph.getEndpoint(p, position);
+				} else if (part == 1) {
+					graph.getJunction(p, position);
+				} else {
+					graph.getPathPoint(p, position);
+				}
+				for (int d = 0; d < numDims; d++) {
+					coordinates.get(d).add(new LongCell(position[d]));
+				}
+			}
+			for (int d = 0; d < AXES.length; d++) {
+				cells[first + part * AXES.length + d] = d < numDims ? CollectionCellFactory
+						.createListCell(coordinates.get(d)) : DataType
+						.getMissingCell();
+			}
+		}
+	}
+
+	@Override
+	protected void reset() {
+		// nothing to do
+	}
+
+	@Override
+	protected void saveSettingsTo(final NodeSettingsWO settings) {
+		m_column.saveSettingsTo(settings);
+	}
+
+	@Override
+	protected void validateSettings(final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		m_column.validateSettings(settings);
+	}
+
+	@Override
+	protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		m_column.loadSettingsFrom(settings);
+	}
+
+	@Override
+	protected void loadInternals(final File internDir,
+			final ExecutionMonitor exec) throws IOException,
+			CanceledExecutionException {
+		// no internals
+	}
+
+	@Override
+	protected void saveInternals(final File internDir,
+			final ExecutionMonitor exec) throws IOException,
+			CanceledExecutionException {
+		// no internals
+	}
+}
@@ -0,0 +1,113 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task on the slabs (bands of lines or slices) of a working image in
+ * parallel. Slabs are taken by the executor threads and the current thread,
+ * which makes sure that all slabs are done even if the executor is busy with
+ * the callers of the thinning. A call returns once all slabs are done, i.e. it
+ * is a barrier between two steps of a thinning.
+ */
+final class SlabRunner {
+
+	/** Work on one slab. */
+	interface SlabTask {
+		/**
+		 * @param slab
+		 *            index of the slab
+		 */
+		void run(int slab);
+	}
+
+	/**
+	 * the threads, the current thread only if <code>null</code>
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * @param executor
+	 *            the threads, may be <code>null</code>
+	 */
+	SlabRunner(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs a task on every step-th slab, starting at the given one.
+	 *
+	 * @param numSlabs
+	 *            number of slabs
+	 * @param first
+	 *            index of the first slab
+	 * @param step
+	 *            distance of two slabs
+	 * @param task
+	 *            the task
+	 */
+	void forEach(final int numSlabs, final int first, final int step,
+			final SlabTask task) {
+		final int numTasks = (numSlabs - first + step - 1) / step;
+		final AtomicInteger next = new AtomicInteger(first);
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				for (int s = next.getAndAdd(step); s < numSlabs; s = next
+						.getAndAdd(step)) {
+					task.run(s);
+				}
+			}
+		};
+
+		final List<Future<?>> helpers = new ArrayList<Future<?>>();
+		try {
+			if (executor != null) {
+				final int numHelpers = Math.min(numTasks, Runtime.getRuntime()
+						.availableProcessors()) - 1;
+				for (int h = 0; h < numHelpers; h++) {
+					helpers.add(executor.submit(worker));
+				}
+			}
+			worker.run();
+			for (final Future<?> helper : helpers) {
+				// helpers which have not started yet are not needed anymore
+				if (!helper.cancel(false)) {
+					helper.get();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Thinning has been interrupted.",
+					e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			for (final Future<?> helper : helpers) {
+				helper.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the slabs are run by more threads than the
+	 *         current one
+	 */
+	boolean isParallel() {
+		return executor != null;
+	}
+
+	/**
+	 * @return the executor, may be <code>null</code>
+	 */
+	ExecutorService getExecutor() {
+		return executor;
+	}
+}
@@ -1,11 +1,13 @@
 package org.knime.knip.leuven.nodes.thinning;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
 import net.imglib2.ops.operation.UnaryOperation;
 import net.imglib2.type.logic.BitType;
 
@@ -41,11 +43,138 @@ public class Thinning<TYPE extends RandomAccessibleInterval<BitType> & IterableI
 	/** working image depth */
 	private int depth = 0;
 
+	/**
+	 * working image, one byte per pixel and line by line, surrounded by a
+	 * background border of one pixel which saves all bounds checks
+	 */
+	private byte[] pixels = new byte[0];
+	/** line length of the working image including the border */
+	private int stride = 0;
+	/** slice size of the working image including the border */
+	private int sliceStride = 0;
+	/** index of the first slice, a volume has a background slice in front */
+	private int firstSlice = 0;
+
+	/** Euler LUT [Lee94] */
+	private static final int[] EULER_LUT = new int[256];
+
+	/** marks the pixels of the working image which are in a border front */
+	private byte[] inFront = new byte[0];
+
+	/**
+	 * positions of the 8 in-plane neighbors in the 27-pixels neighborhood, bit
+	 * k of a neighborhood code is the neighbor at NEIGHBORS[k]
+	 */
+	private static final int[] NEIGHBORS = { 9, 10, 11, 12, 14, 15, 16, 17 };
+
+	/**
+	 * Results of isSimplePoint indexed by the neighborhood code. The slices
+	 * above and below are background and the center pixel is ignored, hence
+	 * the 8 in-plane neighbors determine the result.
+	 */
+	private static final boolean[] SIMPLE = new boolean[256];
+
+	/**
+	 * Whether a border point is deletable indexed by the neighborhood code,
+	 * i.e. it is not the end of an arc, Euler invariant and simple.
+	 */
+	private static final boolean[] DELETABLE = new boolean[256];
+
+	/** number of lines of one slab of an image */
+	private static final int BAND_HEIGHT = 64;
+
+	/** number of slices of one slab of a volume */
+	private static final int SLAB_DEPTH = 4;
+
+	/** runs the slabs of the working image in parallel */
+	private final SlabRunner runner;
+
+	/** whether the skeleton graph is computed */
+	private final boolean computeGraph;
+
+	/** skeleton graph of the last image */
+	private SkeletonGraph graph = null;
+
+	/** slabs of the working image */
+	private Slab[] slabs = new Slab[0];
+
+	/**
+	 * buffers of the working image shared by the copies of the thinning (see
+	 * copy()), <code>null</code> if each image allocates its own
+	 */
+	private final ThinningBuffers buffers;
+
+	static {
+		final Thinning<Img<BitType>> thinning = new Thinning<Img<BitType>>();
+		thinning.fillEulerLUT(EULER_LUT);
+		final boolean[] neighbors = new boolean[27];
+		final int[] cube = new int[26];
+		for (int code = 0; code < 256; code++) {
+			for (int k = 0; k < 8; k++) {
+				neighbors[NEIGHBORS[k]] = (code & 1 << k) != 0;
+			}
+			neighbors[13] = true;
+			SIMPLE[code] = thinning.isSimplePoint(neighbors, cube);
+			DELETABLE[code] = Integer.bitCount(code) != 1
+					&& thinning.isEulerInvariant(neighbors, EULER_LUT)
+					&& SIMPLE[code];
+		}
+	}
+
 	public Thinning() {
+		this(null);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the slabs of large images and volumes in parallel, may
+	 *            be <code>null</code>
+	 */
+	public Thinning(ExecutorService executor) {
+		this(executor, false);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the slabs of large images and volumes in parallel, may
+	 *            be <code>null</code>
+	 * @param computeGraph
+	 *            whether the skeleton graph is computed along with the
+	 *            skeleton, see {@link #getSkeletonGraph()}
+	 */
+	public Thinning(ExecutorService executor, boolean computeGraph) {
+		this(executor, computeGraph, null);
 	}
 
 	/**
-	 * Applies the computation on the image.
+	 * @param executor
+	 *            runs the slabs of large images and volumes in parallel, may
+	 *            be <code>null</code>
+	 * @param computeGraph
+	 *            whether the skeleton graph is computed along with the
+	 *            skeleton, see {@link #getSkeletonGraph()}
+	 * @param buffers
+	 *            buffers of the working image reused for the next image, may
+	 *            be <code>null</code>
+	 */
+	Thinning(ExecutorService executor, boolean computeGraph,
+			ThinningBuffers buffers) {
+		this.runner = new SlabRunner(executor);
+		this.computeGraph = computeGraph;
+		this.buffers = buffers;
+	}
+
+	/**
+	 * @return the skeleton graph of the last image, <code>null</code> if it is
+	 *         not computed
+	 */
+	public SkeletonGraph getSkeletonGraph() {
+		return graph;
+	}
+
+	/**
+	 * Applies the computation on the image. Two-dimensional images are thinned
+	 * slice-wise, three-dimensional images (e.g. XYZ or XYT) as a volume.
 	 * 
 	 * @param input
 	 *            the input values
@@ -54,392 +183,820 @@ public class Thinning<TYPE extends RandomAccessibleInterval<BitType> & IterableI
 	 */
 	@Override
 	public TYPE compute(TYPE input, TYPE output) {
-
-		// dimensions of the input
-		this.width = (int) input.dimension(0);
-		this.height = (int) input.dimension(1);
-		this.depth = 1;
-
-		// System.out.println("image expansion(horizontally, vertically): ("
-		// + width + ", " + height + ")");
-
-		// data preparation
-		Cursor<BitType> c1 = input.cursor();
-		BitType t1 = c1.get();
-		Cursor<BitType> c2 = output.cursor();
-		BitType t2 = c2.get();
-		while (c1.hasNext() && c2.hasNext()) {
-			c1.fwd();
-			c2.fwd();
-			double value = t1.getRealDouble();
-			if (value > 0) {
-				t2.setReal(1);
-			} else {
-				t2.setReal(0);
+		Workspace workspace = buffers == null ? null : buffers.lee94.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		pixels = workspace.pixels;
+		inFront = workspace.inFront;
+		slabs = workspace.slabs;
+		try {
+			return thin(input, output, workspace);
+		} finally {
+			if (buffers != null
+					&& pixels.length <= ThinningBuffers.MAX_KEPT_SIZE) {
+				workspace.pixels = pixels;
+				workspace.inFront = inFront;
+				workspace.slabs = slabs;
+				if (workspace.stamps.length > ThinningBuffers.MAX_KEPT_SIZE) {
+					workspace.stamps = workspace.parents = new int[0];
+					workspace.stamp = 0;
+				}
+				buffers.lee94.offer(workspace);
 			}
+			pixels = inFront = new byte[0];
+			slabs = new Slab[0];
 		}
-
-		// Compute Thinning (method from fiji, by Ignacio Arganda-Carreras)
-		output = computeThinImage(output);
-
-		return output;
 	}
 
 	/**
-	 * Post processing for computing thinning. (Code is adapted to the KNIME
-	 * environment)
+	 * Thins an image in the buffers of the working image.
 	 * 
-	 * @param outputImage
-	 *            output image stack
+	 * @param input
+	 *            the input values
+	 * @param output
+	 *            the output values
+	 * @param workspace
+	 *            buffers of the working image
+	 * @return the output
 	 */
-	private TYPE computeThinImage(TYPE outputImage) {
+	private TYPE thin(TYPE input, TYPE output, Workspace workspace) {
 
-		ArrayList<int[]> simpleBorderPoints = new ArrayList<int[]>();
+		final int numDims = input.numDimensions();
+		for (int d = 3; d < numDims; d++) {
+			if (input.dimension(d) > 1) {
+				throw new IllegalArgumentException(
+						"Thinning supports at most three dimensions.");
+			}
+		}
+		final boolean volume = numDims > 2 && input.dimension(2) > 1;
 
-		// Prepare Euler LUT [Lee94]
-		int eulerLUT[] = new int[256];
-		fillEulerLUT(eulerLUT);
+		final long minX = input.min(0);
+		final long minY = input.min(1);
+		final long minZ = volume ? input.min(2) : 0;
 
-		// Loop through the image several times until there is no change.
-		int unchangedBorders = 0;
-		while (unchangedBorders < 6) // loop until no change for all the six
-										// border types
-		{
-			unchangedBorders = 0;
-			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
+		// bounding box of the foreground, the working image is restricted to
+		// it as the background around it is never changed
+		long bbMinX = Long.MAX_VALUE;
+		long bbMinY = Long.MAX_VALUE;
+		long bbMinZ = Long.MAX_VALUE;
+		long bbMaxX = Long.MIN_VALUE;
+		long bbMaxY = Long.MIN_VALUE;
+		long bbMaxZ = Long.MIN_VALUE;
+		Cursor<BitType> c1 = input.localizingCursor();
+		while (c1.hasNext()) {
+			if (c1.next().get()) {
+				final long x = c1.getLongPosition(0);
+				final long y = c1.getLongPosition(1);
+				final long z = volume ? c1.getLongPosition(2) : 0;
+				bbMinX = Math.min(bbMinX, x);
+				bbMinY = Math.min(bbMinY, y);
+				bbMinZ = Math.min(bbMinZ, z);
+				bbMaxX = Math.max(bbMaxX, x);
+				bbMaxY = Math.max(bbMaxY, y);
+				bbMaxZ = Math.max(bbMaxZ, z);
+			}
+		}
 
-				// Loop through the image.
-				for (int z = 0; z < depth; z++) {
-					int x = 0;
-					int y = 0;
-
-					// container for current position
-					int[] pos = new int[outputImage.numDimensions()];
-					Cursor<BitType> cOut = outputImage.cursor();
-					while (cOut.hasNext()) {
-						cOut.fwd();
-						cOut.localize(pos);
-						x = pos[0];
-						y = pos[1];
-						// check if point is foreground
-						if (!getPixel(outputImage, x, y, z)) {
-							continue; // current point is already background
-						}
-						// check 6-neighbors if point is a border point of type
-						// currentBorder
-						boolean isBorderPoint = false;
-						// North
-						if (currentBorder == 1
-								&& N(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// South
-						if (currentBorder == 2
-								&& S(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// East
-						if (currentBorder == 3
-								&& E(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// West
-						if (currentBorder == 4
-								&& W(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// Up
-						if (currentBorder == 5
-								&& U(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// Bottom
-						if (currentBorder == 6
-								&& B(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-
-						if (!isBorderPoint) {
-							continue; // current point is not deletable
-						}
+		if (bbMinX > bbMaxX) {
+			// no foreground, nothing to thin
+			for (final BitType t : output) {
+				t.set(false);
+			}
+			if (computeGraph) {
+				graph = new SkeletonGraph(volume ? 3 : 2, new long[0],
+						new long[0], new long[0]);
+			}
+			return output;
+		}
 
-						// check if point is the end of an arc
-						int numberOfNeighbors = -1; // -1 and not 0 because the
-													// center pixel will be
-													// counted as well
-						boolean[] neighbor = getNeighborhood(outputImage, x, y,
-								z);
-						for (int i = 0; i < 27; i++) // i = 0..26
-						{
-							if (neighbor[i] == true)
-								numberOfNeighbors++;
-						}
+		// dimensions of the working image
+		this.width = (int) (bbMaxX - bbMinX + 1);
+		this.height = (int) (bbMaxY - bbMinY + 1);
+		this.depth = (int) (bbMaxZ - bbMinZ + 1);
 
-						if (numberOfNeighbors == 1) {
-							continue; // current point is not deletable
-						}
+		// data preparation: copy the binarized bounding box into the working
+		// image, its background border is the margin around the foreground
+		this.stride = width + 2;
+		this.sliceStride = stride * (height + 2);
+		this.firstSlice = depth > 1 ? sliceStride : 0;
+		final long size = (long) sliceStride * (depth > 1 ? depth + 2 : 1);
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException(
+					"The foreground is too large for thinning.");
+		}
+		if (pixels.length < size) {
+			pixels = new byte[(int) size];
+			inFront = new byte[(int) size];
+		} else {
+			Arrays.fill(pixels, 0, (int) size, (byte) 0);
+			Arrays.fill(inFront, 0, (int) size, (byte) 0);
+		}
 
-						// Check if point is Euler invariant
-						if (!isEulerInvariant(
-								getNeighborhood(outputImage, x, y, z), eulerLUT)) {
-							continue; // current point is not deletable
-						}
-						// Check if point is simple (deletion does not change
-						// connectivity in the 3x3x3 neighborhood)
-						if (!isSimplePoint(getNeighborhood(outputImage, x, y, z))) {
-							continue; // current point is not deletable
-						}
-						// add all simple border points to a list for sequential
-						// re-checking
-						int[] index = new int[3];
-						index[0] = x;
-						index[1] = y;
-						index[2] = z;
-						simpleBorderPoints.add(index);
+		final RandomAccess<BitType> ra = input.randomAccess();
+		for (int d = 0; d < numDims; d++) {
+			ra.setPosition(input.min(d), d);
+		}
+		for (int z = 0; z < depth; z++) {
+			if (volume) {
+				ra.setPosition(bbMinZ + z, 2);
+			}
+			for (int y = 0; y < height; y++) {
+				ra.setPosition(bbMinX, 0);
+				ra.setPosition(bbMinY + y, 1);
+				int i = index(0, y, z);
+				for (int x = 0; x < width; x++, i++) {
+					if (ra.get().get()) {
+						pixels[i] = 1;
 					}
-					// }
-					// }
+					ra.fwd(0);
 				}
+			}
+		}
 
-				// sequential re-checking to preserve connectivity when
-				// deleting in a parallel way
-				boolean noChange = true;
-				int[] index = null;
-				for (int i = 0; i < simpleBorderPoints.size(); i++) {
-					index = simpleBorderPoints.get(i);
-					// 1. Set simple border point to 0
-					outputImage = setPixel(outputImage, index[0], index[1],
-							index[2], false);
-
-					// 2. Check if neighborhood is still connected
-					if (!isSimplePoint(getNeighborhood(outputImage, index[0],
-							index[1], index[2]))) {
-						// we cannot delete current point, so reset
-						outputImage = setPixel(outputImage, index[0], index[1],
-								index[2], true);
-					} else {
-						noChange = false;
+		// Compute Thinning (method from fiji, by Ignacio Arganda-Carreras)
+		if (depth > 1) {
+			computeThinVolume();
+		} else {
+			computeThinImage();
+		}
+
+		// write the working image to the output, background outside of the
+		// bounding box, and collect the skeleton points on the way
+		final long offX = bbMinX - minX + output.min(0);
+		final long offY = bbMinY - minY + output.min(1);
+		final long offZ = volume ? bbMinZ - minZ + output.min(2) : 0;
+		int[] skeleton = workspace.skeleton;
+		int numSkeletonPoints = 0;
+		Cursor<BitType> c2 = output.localizingCursor();
+		while (c2.hasNext()) {
+			c2.fwd();
+			final long x = c2.getLongPosition(0) - offX;
+			final long y = c2.getLongPosition(1) - offY;
+			final long z = volume ? c2.getLongPosition(2) - offZ : 0;
+			if (x < 0 || x >= width || y < 0 || y >= height || z < 0
+					|| z >= depth) {
+				c2.get().set(false);
+				continue;
+			}
+			final int i = index((int) x, (int) y, (int) z);
+			c2.get().set(pixels[i] != 0);
+			if (computeGraph && pixels[i] != 0) {
+				if (numSkeletonPoints == skeleton.length) {
+					skeleton = Arrays.copyOf(skeleton, 2 * skeleton.length);
+				}
+				skeleton[numSkeletonPoints++] = i;
+			}
+		}
+
+		if (computeGraph) {
+			workspace.skeleton = skeleton;
+			graph = createSkeletonGraph(workspace, numSkeletonPoints,
+					volume ? new long[] { bbMinX, bbMinY, bbMinZ } : new long[] {
+							bbMinX, bbMinY });
+		}
+
+		return output;
+	}
+
+	/**
+	 * Computes the skeleton graph from the skeleton points, which takes time
+	 * proportional to their number. The longest path is found by two breadth
+	 * first searches per connected component, the first one finds an end of
+	 * the longest path of the component and the second one the other end.
+	 * This is exact for trees and a good approximation for skeletons with
+	 * cycles.
+	 * 
+	 * @param workspace
+	 *            buffers of the working image, holds the skeleton points
+	 * @param numSkeletonPoints
+	 *            number of skeleton points
+	 * @param origin
+	 *            position of the working image in the thinned image
+	 * @return the skeleton graph
+	 */
+	private SkeletonGraph createSkeletonGraph(Workspace workspace,
+			int numSkeletonPoints, long[] origin) {
+		final int[] skeleton = workspace.skeleton;
+		final int numDims = origin.length;
+
+		// offsets of the 8 (26) neighbors, the neighbors in the slices above
+		// and below exist only if the working image has several slices, which
+		// is not the case for a volume with foreground in a single slice
+		final boolean slices = depth > 1;
+		final int[] neighbors = new int[slices ? 26 : 8];
+		int k = 0;
+		for (int dz = slices ? -sliceStride : 0; dz <= (slices ? sliceStride
+				: 0); dz += sliceStride) {
+			for (int dy = -stride; dy <= stride; dy += stride) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dz != 0 || dy != 0 || dx != 0) {
+						neighbors[k++] = dz + dy + dx;
 					}
 				}
-				if (noChange)
-					unchangedBorders++;
+			}
+		}
 
-				simpleBorderPoints.clear();
+		// end points and junctions
+		int numEndpoints = 0;
+		int numJunctions = 0;
+		long[] endpoints = new long[4 * numDims];
+		long[] junctions = new long[4 * numDims];
+		for (int p = 0; p < numSkeletonPoints; p++) {
+			final int i = skeleton[p];
+			int degree = 0;
+			for (final int n : neighbors) {
+				degree += pixels[i + n];
+			}
+			if (degree <= 1) {
+				if ((numEndpoints + 1) * numDims > endpoints.length) {
+					endpoints = Arrays.copyOf(endpoints, 2 * endpoints.length);
+				}
+				toPosition(i, origin, endpoints, numEndpoints++ * numDims);
+			} else if (degree >= 3) {
+				if ((numJunctions + 1) * numDims > junctions.length) {
+					junctions = Arrays.copyOf(junctions, 2 * junctions.length);
+				}
+				toPosition(i, origin, junctions, numJunctions++ * numDims);
+			}
+		}
 
-			} // end currentBorder for loop
+		// longest path
+		if (workspace.stamps.length < pixels.length) {
+			workspace.stamps = new int[pixels.length];
+			workspace.parents = new int[pixels.length];
+			workspace.stamp = 0;
+		} else if (workspace.stamp > Integer.MAX_VALUE - 2
+				* numSkeletonPoints - 2) {
+			Arrays.fill(workspace.stamps, 0);
+			workspace.stamp = 0;
+		}
+		if (workspace.queue.length < numSkeletonPoints) {
+			workspace.queue = new int[numSkeletonPoints];
+		}
+		// points with a stamp of at least first have been visited
+		final int first = workspace.stamp + 1;
+		int[] path = new int[0];
+		for (int p = 0; p < numSkeletonPoints; p++) {
+			if (workspace.stamps[skeleton[p]] >= first) {
+				continue; // component has been visited already
+			}
+			final int start = breadthFirstSearch(workspace, skeleton[p],
+					neighbors);
+			final int end = breadthFirstSearch(workspace, start, neighbors);
+			int length = 1;
+			for (int i = end; i != start; i = workspace.parents[i]) {
+				length++;
+			}
+			if (length > path.length) {
+				path = new int[length];
+				int i = end;
+				for (int q = length - 1; q >= 0; q--) {
+					path[q] = i;
+					i = workspace.parents[i];
+				}
+			}
+		}
+		final long[] longestPath = new long[path.length * numDims];
+		for (int q = 0; q < path.length; q++) {
+			toPosition(path[q], origin, longestPath, q * numDims);
+		}
 
+		return new SkeletonGraph(numDims, Arrays.copyOf(endpoints,
+				numEndpoints * numDims), Arrays.copyOf(junctions, numJunctions
+				* numDims), longestPath);
+	}
+
+	/**
+	 * Breadth first search through the skeleton, which records the parent of
+	 * every reached point.
+	 * 
+	 * @param workspace
+	 *            buffers of the working image
+	 * @param start
+	 *            index of the first point
+	 * @param neighbors
+	 *            offsets of the neighbors
+	 * @return index of the point reached last, i.e. of a point with the
+	 *         largest distance to the first point
+	 */
+	private int breadthFirstSearch(Workspace workspace, int start,
+			int[] neighbors) {
+		final int stamp = ++workspace.stamp;
+		final int[] stamps = workspace.stamps;
+		final int[] queue = workspace.queue;
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		stamps[start] = stamp;
+		int last = start;
+		while (head < tail) {
+			last = queue[head++];
+			for (final int n : neighbors) {
+				final int i = last + n;
+				if (pixels[i] != 0 && stamps[i] != stamp) {
+					stamps[i] = stamp;
+					workspace.parents[i] = last;
+					queue[tail++] = i;
+				}
+			}
 		}
-		return outputImage;
-	} /* end computeThinImage */
+		return last;
+	}
+
+	/**
+	 * Converts an index of the working image into a position in the thinned
+	 * image.
+	 * 
+	 * @param i
+	 *            index of the pixel in the working image
+	 * @param origin
+	 *            position of the working image in the thinned image
+	 * @param positions
+	 *            receives the position
+	 * @param offset
+	 *            index of the first coordinate in positions
+	 */
+	private void toPosition(int i, long[] origin, long[] positions, int offset) {
+		final int r = i - firstSlice;
+		final int inSlice = r % sliceStride;
+		positions[offset] = origin[0] + inSlice % stride - 1;
+		positions[offset + 1] = origin[1] + inSlice / stride - 1;
+		if (origin.length > 2) {
+			positions[offset + 2] = origin[2] + r / sliceStride;
+		}
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * Get neighborhood of a pixel in a 3D image (0 border conditions)
+	 * Index of a pixel in the working image.
 	 * 
-	 * @param image
-	 *            3D image (ImageStack)
 	 * @param x
 	 *            x- coordinate
 	 * @param y
 	 *            y- coordinate
 	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 27-pixels neighborhood (0 if out of image)
+	 *            z- coordinate
+	 * @return index into pixels
 	 */
-	private boolean[] getNeighborhood(TYPE image, int x, int y, int z) {
-		boolean[] neighborhood = new boolean[27];
+	private int index(int x, int y, int z) {
+		return firstSlice + z * sliceStride + (y + 1) * stride + x + 1;
+	}
 
-		neighborhood[0] = getPixel(image, x - 1, y - 1, z - 1);
-		neighborhood[1] = getPixel(image, x, y - 1, z - 1);
-		neighborhood[2] = getPixel(image, x + 1, y - 1, z - 1);
+	/**
+	 * Post processing for computing thinning on the working image. (Code is
+	 * adapted to the KNIME environment)
+	 * 
+	 * Instead of scanning the whole image for every border type, only the
+	 * border front is visited. A foreground pixel whose neighborhood is not
+	 * deletable stays so until one of its neighbors is deleted, hence it is
+	 * dropped from the front and added again on the deletion of a neighbor.
+	 * 
+	 * The front of a slab is visited in raster order, hence an image of a
+	 * single slab gives exactly the result of the full scans. With an executor,
+	 * images of more than BAND_HEIGHT lines are split into slabs of
+	 * BAND_HEIGHT lines, each with a front of its own, which are processed in
+	 * parallel like the slabs of a volume (see computeThinVolume). The
+	 * re-checking of the even slabs before the odd ones preserves the
+	 * topology, but pixels near the slab borders may be deleted in another
+	 * order than in the full scans, i.e. the skeleton may differ slightly.
+	 */
+	private void computeThinImage() {
 
-		neighborhood[3] = getPixel(image, x - 1, y, z - 1);
-		neighborhood[4] = getPixel(image, x, y, z - 1);
-		neighborhood[5] = getPixel(image, x + 1, y, z - 1);
+		final int numSlabs = createSlabs(height,
+				runner.isParallel() && height > BAND_HEIGHT ? BAND_HEIGHT
+						: height);
 
-		neighborhood[6] = getPixel(image, x - 1, y + 1, z - 1);
-		neighborhood[7] = getPixel(image, x, y + 1, z - 1);
-		neighborhood[8] = getPixel(image, x + 1, y + 1, z - 1);
+		// initial front: all foreground pixels with a deletable neighborhood
+		runner.forEach(numSlabs, 0, 1, new SlabRunner.SlabTask() {
+			@Override
+			public void run(int s) {
+				final Slab slab = slabs[s];
+				slab.frontSize = 0;
+				for (int y = slab.first; y < slab.last; y++) {
+					int i = index(0, y, 0);
+					for (int x = 0; x < width; x++, i++) {
+						if (pixels[i] != 0
+								&& DELETABLE[getNeighborhoodCode(i)]) {
+							addToFront(slab, i);
+						}
+					}
+				}
+			}
+		});
 
-		neighborhood[9] = getPixel(image, x - 1, y - 1, z);
-		neighborhood[10] = getPixel(image, x, y - 1, z);
-		neighborhood[11] = getPixel(image, x + 1, y - 1, z);
+		// offsets of the four in-plane border types: North, South, East and
+		// West
+		final int[] borderOffsets = { -stride, stride, 1, -1 };
 
-		neighborhood[12] = getPixel(image, x - 1, y, z);
-		neighborhood[13] = getPixel(image, x, y, z);
-		neighborhood[14] = getPixel(image, x + 1, y, z);
+		// Loop through the front several times until there is no change.
+		int unchangedBorders = 0;
+		while (unchangedBorders < 6 && !isFrontEmpty()) // loop until no change
+														// for all the six
+														// border types
+		{
+			unchangedBorders = 0;
+			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
+				// Up and Bottom: the neighbors in z are always background as
+				// the image is a single slice, i.e. every point is a border
+				// point
+				final int borderOffset = currentBorder <= 4 ? borderOffsets[currentBorder - 1]
+						: 0;
 
-		neighborhood[15] = getPixel(image, x - 1, y + 1, z);
-		neighborhood[16] = getPixel(image, x, y + 1, z);
-		neighborhood[17] = getPixel(image, x + 1, y + 1, z);
+				runner.forEach(numSlabs, 0, 1, new SlabRunner.SlabTask() {
+					@Override
+					public void run(int s) {
+						collectSimpleBorderPoints(slabs[s], borderOffset);
+					}
+				});
 
-		neighborhood[18] = getPixel(image, x - 1, y - 1, z + 1);
-		neighborhood[19] = getPixel(image, x, y - 1, z + 1);
-		neighborhood[20] = getPixel(image, x + 1, y - 1, z + 1);
+				// sequential re-checking to preserve connectivity when
+				// deleting in a parallel way
+				final SlabRunner.SlabTask recheck = new SlabRunner.SlabTask() {
+					@Override
+					public void run(int s) {
+						recheckSimpleBorderPoints(slabs[s]);
+					}
+				};
+				runner.forEach(numSlabs, 0, 2, recheck);
+				runner.forEach(numSlabs, 1, 2, recheck);
 
-		neighborhood[21] = getPixel(image, x - 1, y, z + 1);
-		neighborhood[22] = getPixel(image, x, y, z + 1);
-		neighborhood[23] = getPixel(image, x + 1, y, z + 1);
+				// the neighborhoods of the neighbors of deleted points have
+				// changed, they may be in the adjacent slabs
+				runner.forEach(numSlabs, 0, 1, new SlabRunner.SlabTask() {
+					@Override
+					public void run(int s) {
+						for (int t = Math.max(0, s - 1); t <= Math.min(
+								numSlabs - 1, s + 1); t++) {
+							addNeighborsToFront(slabs[s], slabs[t]);
+						}
+					}
+				});
 
-		neighborhood[24] = getPixel(image, x - 1, y + 1, z + 1);
-		neighborhood[25] = getPixel(image, x, y + 1, z + 1);
-		neighborhood[26] = getPixel(image, x + 1, y + 1, z + 1);
+				if (!isChanged())
+					unchangedBorders++;
 
-		return neighborhood;
-	} /* end getNeighborhood */
+			} // end currentBorder for loop
+
+		}
+	} /* end computeThinImage */
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * Get pixel in 3D image (0 border conditions)
+	 * Collects the simple border points in the front of a slab of the working
+	 * image and drops the pixels which are no longer deletable from the
+	 * front.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding pixel (0 if out of image)
+	 * @param slab
+	 *            the slab
+	 * @param borderOffset
+	 *            offset of the 4-neighbor which must be background for the
+	 *            current border type, 0 if every point is a border point
 	 */
-	private boolean getPixel(TYPE image, int x, int y, int z) {
-		if (x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0
-				&& z < this.depth) {
-			RandomAccess<BitType> acc = image.randomAccess();
-			BitType out = acc.get();
-			acc.setPosition(new int[] { x, y });
-			return (out.get());
-		} else
-			return false;
-	} /* end getPixel */
+	private void collectSimpleBorderPoints(Slab slab, int borderOffset) {
+		// Loop through the front in raster order
+		final int[] front = slab.front;
+		Arrays.sort(front, 0, slab.frontSize);
+		slab.numPoints = 0;
+		int kept = 0;
+		for (int f = 0; f < slab.frontSize; f++) {
+			final int i = front[f];
+			// check if point is foreground, not the end of an arc, Euler
+			// invariant and simple (deletion does not change connectivity in
+			// the 3x3x3 neighborhood)
+			if (pixels[i] == 0 || !DELETABLE[getNeighborhoodCode(i)]) {
+				inFront[i] = 0;
+				continue; // current point is not deletable
+			}
+			front[kept++] = i;
+
+			// check 4-neighbors if point is a border point of the current
+			// type
+			if (borderOffset != 0 && pixels[i + borderOffset] != 0) {
+				continue; // current point is not deletable
+			}
+
+			// add all simple border points to a list for sequential
+			// re-checking
+			addPoint(slab, i);
+		}
+		slab.frontSize = kept;
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * Set pixel in 3D image
+	 * Deletes the simple border points of a slab of the working image one
+	 * after the other unless the deletion of the previous points changed their
+	 * connectivity. The deleted points are kept at the start of the list of
+	 * points.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @param value
-	 *            pixel value
+	 * @param slab
+	 *            the slab
 	 */
-	private TYPE setPixel(TYPE image, int x, int y, int z, boolean value) {
-		if (x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0
-				&& z < this.depth) {
-			RandomAccess<BitType> acc = image.randomAccess();
-			BitType out = acc.get();
-			acc.setPosition(new int[] { x, y });
-			out.set(value);
+	private void recheckSimpleBorderPoints(Slab slab) {
+		int numDeleted = 0;
+		for (int p = 0; p < slab.numPoints; p++) {
+			final int i = slab.points[p];
+			// 1. Set simple border point to 0
+			pixels[i] = 0;
+
+			// 2. Check if neighborhood is still connected
+			if (!SIMPLE[getNeighborhoodCode(i)]) {
+				// we cannot delete current point, so reset
+				pixels[i] = 1;
+			} else {
+				slab.points[numDeleted++] = i;
+			}
 		}
-		return image;
-	} /* end getPixel */
+		slab.numPoints = numDeleted;
+		slab.changed = numDeleted > 0;
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * North neighborhood (0 border conditions)
+	 * Adds a pixel to the front of a slab unless it is already part of it.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding north pixel
+	 * @param slab
+	 *            the slab containing the pixel
+	 * @param i
+	 *            index of the pixel in the working image
 	 */
-	private boolean N(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y - 1, z);
-	} /* end N */
+	private void addToFront(Slab slab, int i) {
+		if (inFront[i] != 0) {
+			return;
+		}
+		inFront[i] = 1;
+		if (slab.frontSize == slab.front.length) {
+			slab.front = Arrays.copyOf(slab.front, 2 * slab.front.length);
+		}
+		slab.front[slab.frontSize++] = i;
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * South neighborhood (0 border conditions)
+	 * Adds the foreground 8-neighbors of the points deleted in a slab to the
+	 * front of a slab, as far as they belong to it.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding south pixel
+	 * @param slab
+	 *            the slab whose front is extended
+	 * @param deleted
+	 *            the slab whose points have been deleted
 	 */
-	private boolean S(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y + 1, z);
-	} /* end S */
+	private void addNeighborsToFront(Slab slab, Slab deleted) {
+		final int begin = index(0, slab.first, 0) - 1;
+		final int end = index(0, slab.last, 0) - 1;
+		for (int p = 0; p < deleted.numPoints; p++) {
+			final int i = deleted.points[p];
+			for (int dy = -stride; dy <= stride; dy += stride) {
+				for (int dx = -1; dx <= 1; dx++) {
+					final int n = i + dy + dx;
+					if (n >= begin && n < end && pixels[n] != 0) {
+						addToFront(slab, n);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the fronts of all slabs are empty
+	 */
+	private boolean isFrontEmpty() {
+		for (final Slab slab : slabs) {
+			if (slab.frontSize > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * East neighborhood (0 border conditions)
+	 * @return <code>true</code> if any slab has been changed by the last
+	 *         re-checking
+	 */
+	private boolean isChanged() {
+		for (final Slab slab : slabs) {
+			if (slab.changed) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Splits the working image into slabs.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding east pixel
+	 * @param size
+	 *            number of lines (slices of a volume)
+	 * @param slabSize
+	 *            lines (slices) per slab
+	 * @return the number of slabs
 	 */
-	private boolean E(TYPE image, int x, int y, int z) {
-		return getPixel(image, x + 1, y, z);
-	} /* end E */
+	private int createSlabs(int size, int slabSize) {
+		final int numSlabs = (size + slabSize - 1) / slabSize;
+		if (slabs.length != numSlabs) {
+			slabs = new Slab[numSlabs];
+			for (int s = 0; s < numSlabs; s++) {
+				slabs[s] = new Slab();
+			}
+		}
+		for (int s = 0; s < numSlabs; s++) {
+			slabs[s].first = s * slabSize;
+			slabs[s].last = Math.min(size, (s + 1) * slabSize);
+		}
+		return numSlabs;
+	}
 
-	/* ----------------------------------------------------------------------- */
 	/**
-	 * West neighborhood (0 border conditions)
+	 * Post processing for computing thinning on a working volume, following
+	 * the original Skeletonize3D plugin with 26-neighborhoods.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding west pixel
+	 * With an executor, the volume is split into slabs of SLAB_DEPTH slices.
+	 * The simple border points of a pass are collected in all slabs in
+	 * parallel. The sequential re-checking only reads and changes the
+	 * neighborhood of a point, hence slabs which do not touch each other are
+	 * re-checked in parallel: first the even slabs, then the odd slabs. This
+	 * is a valid sequential order of the re-checking and preserves the
+	 * connectivity, but not the order of the plugin, i.e. the skeleton may
+	 * differ slightly. As the slabs do not depend on the number of threads,
+	 * neither does the result. Without an executor the volume is a single
+	 * slab, which gives the result of the plugin.
 	 */
-	private boolean W(TYPE image, int x, int y, int z) {
-		return getPixel(image, x - 1, y, z);
-	} /* end W */
+	private void computeThinVolume() {
+
+		final int numSlabs = createSlabs(depth,
+				runner.isParallel() && depth > SLAB_DEPTH ? SLAB_DEPTH : depth);
+
+		// offsets of the six border types: North, South, East, West, Up and
+		// Bottom
+		final int[] borderOffsets = { -stride, stride, 1, -1, sliceStride,
+				-sliceStride };
+
+		// Loop through the image several times until there is no change.
+		int unchangedBorders = 0;
+		while (unchangedBorders < 6) // loop until no change for all the six
+										// border types
+		{
+			unchangedBorders = 0;
+			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
+				final int borderOffset = borderOffsets[currentBorder - 1];
+
+				runner.forEach(numSlabs, 0, 1, new SlabRunner.SlabTask() {
+					@Override
+					public void run(int s) {
+						collectSimpleVolumeBorderPoints(slabs[s], borderOffset);
+					}
+				});
+
+				// sequential re-checking to preserve connectivity when
+				// deleting in a parallel way
+				final SlabRunner.SlabTask recheck = new SlabRunner.SlabTask() {
+					@Override
+					public void run(int s) {
+						recheckSimpleVolumeBorderPoints(slabs[s]);
+					}
+				};
+				runner.forEach(numSlabs, 0, 2, recheck);
+				runner.forEach(numSlabs, 1, 2, recheck);
+
+				if (!isChanged())
+					unchangedBorders++;
+
+			} // end currentBorder for loop
+		}
+	} /* end computeThinVolume */
+
+	/**
+	 * Collects the simple border points of a slab of the working volume.
+	 * 
+	 * @param slab
+	 *            the slab
+	 * @param borderOffset
+	 *            offset of the 6-neighbor which must be background for the
+	 *            current border type
+	 */
+	private void collectSimpleVolumeBorderPoints(Slab slab, int borderOffset) {
+		slab.numPoints = 0;
+		for (int z = slab.first; z < slab.last; z++) {
+			for (int y = 0; y < height; y++) {
+				int i = index(0, y, z);
+				for (int x = 0; x < width; x++, i++) {
+					// check if point is foreground and a border point of
+					// the current type
+					if (pixels[i] == 0 || pixels[i + borderOffset] != 0) {
+						continue;
+					}
+
+					final boolean[] neighbor = getNeighborhood(i,
+							slab.neighborhood);
+
+					// check if point is the end of an arc
+					int numberOfNeighbors = -1; // -1 and not 0 because the
+												// center pixel will be
+												// counted as well
+					for (int n = 0; n < 27; n++) {
+						if (neighbor[n])
+							numberOfNeighbors++;
+					}
+					if (numberOfNeighbors == 1) {
+						continue; // current point is not deletable
+					}
+
+					// Check if point is Euler invariant
+					if (!isEulerInvariant(neighbor, EULER_LUT)) {
+						continue; // current point is not deletable
+					}
+
+					// Check if point is simple (deletion does not change
+					// connectivity in the 3x3x3 neighborhood)
+					if (!isSimplePoint(neighbor, slab.cube)) {
+						continue; // current point is not deletable
+					}
+
+					// add all simple border points to a list for sequential
+					// re-checking
+					addPoint(slab, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the simple border points of a slab one after the other unless
+	 * the deletion of the previous points changed their connectivity.
+	 * 
+	 * @param slab
+	 *            the slab
+	 */
+	private void recheckSimpleVolumeBorderPoints(Slab slab) {
+		slab.changed = false;
+		for (int p = 0; p < slab.numPoints; p++) {
+			final int i = slab.points[p];
+			// 1. Set simple border point to 0
+			pixels[i] = 0;
+
+			// 2. Check if neighborhood is still connected
+			final boolean[] neighbor = getNeighborhood(i, slab.neighborhood);
+			if (!isSimplePoint(neighbor, slab.cube)) {
+				// we cannot delete current point, so reset
+				pixels[i] = 1;
+			} else {
+				slab.changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Adds a simple border point to the list of a slab.
+	 * 
+	 * @param slab
+	 *            the slab
+	 * @param i
+	 *            index of the point in the working image
+	 */
+	private static void addPoint(Slab slab, int i) {
+		if (slab.numPoints == slab.points.length) {
+			slab.points = Arrays.copyOf(slab.points, 2 * slab.points.length);
+		}
+		slab.points[slab.numPoints++] = i;
+	}
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Up neighborhood (0 border conditions)
+	 * Get neighborhood of a pixel in a 3D working image.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding up pixel
+	 * @param i
+	 *            index of the pixel in the working image
+	 * @param neighborhood
+	 *            receives the neighborhood
+	 * @return corresponding 27-pixels neighborhood (0 if out of image)
 	 */
-	private boolean U(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y, z + 1);
-	} /* end U */
+	private boolean[] getNeighborhood(int i, boolean[] neighborhood) {
+		final byte[] p = pixels;
+		int n = 0;
+		for (int dz = -sliceStride; dz <= sliceStride; dz += sliceStride) {
+			for (int dy = -stride; dy <= stride; dy += stride) {
+				final int j = i + dz + dy;
+				neighborhood[n++] = p[j - 1] != 0;
+				neighborhood[n++] = p[j] != 0;
+				neighborhood[n++] = p[j + 1] != 0;
+			}
+		}
+		return neighborhood;
+	} /* end getNeighborhood */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Bottom neighborhood (0 border conditions)
+	 * Get the in-plane neighborhood of a pixel of the working image as code
+	 * for the lookup tables, see NEIGHBORS. The slices above and below are
+	 * background.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding bottom pixel
+	 * @param i
+	 *            index of the pixel in the working image
+	 * @return neighborhood code (0 if out of image)
 	 */
-	private boolean B(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y, z - 1);
-	} /* end N */
+	private int getNeighborhoodCode(int i) {
+		final byte[] p = pixels;
+		final int s = stride;
+		return p[i - s - 1] | p[i - s] << 1 | p[i - s + 1] << 2 | p[i - 1] << 3
+				| p[i + 1] << 4 | p[i + s - 1] << 5 | p[i + s] << 6
+				| p[i + s + 1] << 7;
+	} /* end getNeighborhoodCode */
 
 	/* ----------------------------------------------------------------------- */
 	/**
@@ -746,11 +1303,12 @@ public class Thinning<TYPE extends RandomAccessibleInterval<BitType> & IterableI
 	 * 
 	 * @param neighbors
 	 *            neighbor pixels of the point
+	 * @param cube
+	 *            buffer for the labels of the neighborhood
 	 * @return true or false if the point is simple or not
 	 */
-	private boolean isSimplePoint(boolean[] neighbors) {
+	private boolean isSimplePoint(boolean[] neighbors, int[] cube) {
 		// copy neighbors for labeling
-		int cube[] = new int[26];
 		int i = 0;
 		for (i = 0; i < 13; i++)
 			// i = 0..12 -> cube[0..12]
@@ -1113,8 +1671,57 @@ public class Thinning<TYPE extends RandomAccessibleInterval<BitType> & IterableI
 
 	/* ----------------------------------------------------------------------- */
 
+	/**
+	 * Lines of the working image or slices of the working volume together
+	 * with the buffers of the thread working on them.
+	 */
+	private static final class Slab {
+		/** first line (slice) */
+		int first;
+		/** line (slice) behind the last line (slice) */
+		int last;
+		/**
+		 * indices of the border front of an image, i.e. of all foreground
+		 * pixels of the slab which may be deletable
+		 */
+		int[] front = new int[64];
+		/** number of pixels in the front */
+		int frontSize;
+		/** indices of the simple border points of the current pass */
+		int[] points = new int[64];
+		/** number of simple border points */
+		int numPoints;
+		/** whether the re-checking deleted a point */
+		boolean changed;
+		/** neighborhood of the current point */
+		final boolean[] neighborhood = new boolean[27];
+		/** labels of the neighborhood in isSimplePoint */
+		final int[] cube = new int[26];
+	}
+
+	/**
+	 * Buffers of the working image of one image at a time.
+	 */
+	static final class Workspace {
+		byte[] pixels = new byte[0];
+		byte[] inFront = new byte[0];
+		Slab[] slabs = new Slab[0];
+		/** indices of the skeleton points */
+		int[] skeleton = new int[64];
+		/** stamps of the breadth first searches which reached a pixel */
+		int[] stamps = new int[0];
+		/** stamp of the last breadth first search */
+		int stamp = 0;
+		/** parents of the pixels in the last breadth first search */
+		int[] parents = new int[0];
+		/** queue of the breadth first search */
+		int[] queue = new int[0];
+	}
+
+	/* ----------------------------------------------------------------------- */
+
 	@Override
 	public UnaryOperation<TYPE, TYPE> copy() {
-		return new Thinning<TYPE>();
+		return new Thinning<TYPE>(runner.getExecutor(), computeGraph, buffers);
 	}
 }
@@ -0,0 +1,375 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Two-dimensional thinning with 8-connected skeletons, either following Zhang
+ * and Suen (A fast parallel algorithm for thinning digital patterns, 1984) or
+ * Guo and Hall (Parallel thinning with two-subiteration algorithms, 1989).
+ * Both delete border pixels in two alternating sub-iterations until the image
+ * does not change anymore. Whether a pixel is deleted only depends on its 8
+ * neighbors, hence the decision of each sub-iteration is a lookup in a table
+ * of 256 entries. As the decisions of a sub-iteration are based on the image
+ * before it, bands of lines are processed in parallel without changing the
+ * result.
+ */
+public class Thinning2D<TYPE extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>>
+		implements UnaryOperation<TYPE, TYPE> {
+
+	/** Zhang-Suen thinning */
+	public static final int ZHANG_SUEN = 0;
+
+	/** Guo-Hall thinning */
+	public static final int GUO_HALL = 1;
+
+	/*
+	 * Deletability of a pixel indexed by the neighborhood code of
+	 * getNeighborhoodCode(), one table per algorithm and sub-iteration.
+	 */
+	private static final boolean[][][] DELETABLE = new boolean[][][] {
+			{ createZhangSuenLUT(0), createZhangSuenLUT(1) },
+			{ createGuoHallLUT(0), createGuoHallLUT(1) } };
+
+	/** number of lines of one band */
+	private static final int BAND_HEIGHT = 64;
+
+	private final int algorithm;
+
+	/** runs the bands in parallel */
+	private final SlabRunner runner;
+
+	/** working image width */
+	private int width = 0;
+	/** working image height */
+	private int height = 0;
+
+	/**
+	 * working image, one byte per pixel and line by line, surrounded by a
+	 * background border of one pixel
+	 */
+	private byte[] pixels = new byte[0];
+	/** line length of the working image including the border */
+	private int stride = 0;
+
+	/** indices of the pixels deleted by the current sub-iteration per band */
+	private int[][] deleted = new int[0][];
+	/** number of pixels deleted by the current sub-iteration per band */
+	private int[] numDeleted = new int[0];
+
+	/**
+	 * buffers of the working image shared by the copies of the thinning (see
+	 * copy()), <code>null</code> if each image allocates its own
+	 */
+	private final ThinningBuffers buffers;
+
+	/**
+	 * @param algorithm
+	 *            {@link #ZHANG_SUEN} or {@link #GUO_HALL}
+	 */
+	public Thinning2D(int algorithm) {
+		this(algorithm, null);
+	}
+
+	/**
+	 * @param algorithm
+	 *            {@link #ZHANG_SUEN} or {@link #GUO_HALL}
+	 * @param executor
+	 *            runs the bands of large images in parallel, may be
+	 *            <code>null</code>
+	 */
+	public Thinning2D(int algorithm, ExecutorService executor) {
+		this(algorithm, executor, null);
+	}
+
+	/**
+	 * @param algorithm
+	 *            {@link #ZHANG_SUEN} or {@link #GUO_HALL}
+	 * @param executor
+	 *            runs the bands of large images in parallel, may be
+	 *            <code>null</code>
+	 * @param buffers
+	 *            buffers of the working image reused for the next image, may
+	 *            be <code>null</code>
+	 */
+	Thinning2D(int algorithm, ExecutorService executor,
+			ThinningBuffers buffers) {
+		if (algorithm != ZHANG_SUEN && algorithm != GUO_HALL) {
+			throw new IllegalArgumentException("Unknown thinning algorithm: "
+					+ algorithm);
+		}
+		this.algorithm = algorithm;
+		this.runner = new SlabRunner(executor);
+		this.buffers = buffers;
+	}
+
+	/**
+	 * Applies the computation on the image.
+	 *
+	 * @param input
+	 *            the input values
+	 * @param output
+	 *            the output values
+	 */
+	@Override
+	public TYPE compute(TYPE input, TYPE output) {
+		Workspace workspace = buffers == null ? null : buffers.thinning2D
+				.poll();
+		if (workspace == null) {
+			workspace = new Workspace();
+		}
+		pixels = workspace.pixels;
+		deleted = workspace.deleted;
+		numDeleted = workspace.numDeleted;
+		try {
+			return thin(input, output);
+		} finally {
+			if (buffers != null
+					&& pixels.length <= ThinningBuffers.MAX_KEPT_SIZE) {
+				workspace.pixels = pixels;
+				workspace.deleted = deleted;
+				workspace.numDeleted = numDeleted;
+				buffers.thinning2D.offer(workspace);
+			}
+			pixels = new byte[0];
+			deleted = new int[0][];
+			numDeleted = new int[0];
+		}
+	}
+
+	/**
+	 * Thins an image in the buffers of the working image.
+	 *
+	 * @param input
+	 *            the input values
+	 * @param output
+	 *            the output values
+	 * @return the output
+	 */
+	private TYPE thin(TYPE input, TYPE output) {
+
+		for (int d = 2; d < input.numDimensions(); d++) {
+			if (input.dimension(d) > 1) {
+				throw new IllegalArgumentException(
+						"2D thinning supports two dimensions only.");
+			}
+		}
+
+		this.width = (int) input.dimension(0);
+		this.height = (int) input.dimension(1);
+
+		// copy the binarized input into the working image
+		this.stride = width + 2;
+		final int size = stride * (height + 2);
+		if (pixels.length < size) {
+			pixels = new byte[size];
+		} else {
+			Arrays.fill(pixels, 0, size, (byte) 0);
+		}
+
+		final long minX = input.min(0);
+		final long minY = input.min(1);
+		Cursor<BitType> c1 = input.localizingCursor();
+		while (c1.hasNext()) {
+			c1.fwd();
+			if (c1.get().get()) {
+				pixels[index((int) (c1.getLongPosition(0) - minX),
+						(int) (c1.getLongPosition(1) - minY))] = 1;
+			}
+		}
+
+		computeThinImage();
+
+		// write the working image to the output
+		final long outMinX = output.min(0);
+		final long outMinY = output.min(1);
+		Cursor<BitType> c2 = output.localizingCursor();
+		while (c2.hasNext()) {
+			c2.fwd();
+			c2.get().set(
+					pixels[index((int) (c2.getLongPosition(0) - outMinX),
+							(int) (c2.getLongPosition(1) - outMinY))] != 0);
+		}
+
+		return output;
+	}
+
+	private int index(int x, int y) {
+		return (y + 1) * stride + x + 1;
+	}
+
+	/**
+	 * Alternates the two sub-iterations until neither deletes a pixel.
+	 */
+	private void computeThinImage() {
+		final boolean[][] luts = DELETABLE[algorithm];
+
+		final int numBands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		if (deleted.length != numBands) {
+			deleted = new int[numBands][64];
+			numDeleted = new int[numBands];
+		}
+
+		int unchanged = 0;
+		for (int iteration = 0; unchanged < 2; iteration = 1 - iteration) {
+			final boolean[] lut = luts[iteration];
+
+			// collect first, the decisions of a sub-iteration are based on
+			// the image before the sub-iteration
+			runner.forEach(numBands, 0, 1, new SlabRunner.SlabTask() {
+				@Override
+				public void run(int band) {
+					collect(band, lut);
+				}
+			});
+
+			runner.forEach(numBands, 0, 1, new SlabRunner.SlabTask() {
+				@Override
+				public void run(int band) {
+					final int[] d = deleted[band];
+					for (int k = 0; k < numDeleted[band]; k++) {
+						pixels[d[k]] = 0;
+					}
+				}
+			});
+
+			int total = 0;
+			for (int band = 0; band < numBands; band++) {
+				total += numDeleted[band];
+			}
+			unchanged = total == 0 ? unchanged + 1 : 0;
+		}
+	}
+
+	/**
+	 * Collects the pixels of a band to be deleted by a sub-iteration.
+	 *
+	 * @param band
+	 *            index of the band
+	 * @param lut
+	 *            deletability of the sub-iteration
+	 */
+	private void collect(int band, boolean[] lut) {
+		int[] d = deleted[band];
+		int n = 0;
+		final int last = Math.min(height, (band + 1) * BAND_HEIGHT);
+		for (int y = band * BAND_HEIGHT; y < last; y++) {
+			int i = index(0, y);
+			for (int x = 0; x < width; x++, i++) {
+				if (pixels[i] != 0 && lut[getNeighborhoodCode(i)]) {
+					if (n == d.length) {
+						d = Arrays.copyOf(d, 2 * n);
+					}
+					d[n++] = i;
+				}
+			}
+		}
+		deleted[band] = d;
+		numDeleted[band] = n;
+	}
+
+	/**
+	 * Encodes the 8 neighbors of a pixel clockwise starting at north, i.e. bit
+	 * 0 is P2 (north), bit 1 is P3 (north-east) and so on up to bit 7 which is
+	 * P9 (north-west) in the notation of Zhang and Suen.
+	 *
+	 * @param i
+	 *            index of the pixel in the working image
+	 * @return the neighborhood code
+	 */
+	private int getNeighborhoodCode(int i) {
+		final byte[] p = pixels;
+		final int s = stride;
+		return p[i - s] | p[i - s + 1] << 1 | p[i + 1] << 2 | p[i + s + 1] << 3
+				| p[i + s] << 4 | p[i + s - 1] << 5 | p[i - 1] << 6
+				| p[i - s - 1] << 7;
+	}
+
+	/**
+	 * Zhang-Suen: deletes a pixel with 2 to 6 neighbors, exactly one 01
+	 * transition around it and at least one background pixel among P2, P4, P6
+	 * (P2, P4, P8 in the second sub-iteration) and among P4, P6, P8 (P2, P6,
+	 * P8).
+	 */
+	private static boolean[] createZhangSuenLUT(int iteration) {
+		final boolean[] lut = new boolean[256];
+		for (int code = 0; code < 256; code++) {
+			final boolean[] p = neighbors(code);
+			final int b = Integer.bitCount(code);
+			int a = 0;
+			for (int k = 2; k <= 9; k++) {
+				if (!p[k] && p[k == 9 ? 2 : k + 1]) {
+					a++;
+				}
+			}
+			final boolean m1;
+			final boolean m2;
+			if (iteration == 0) {
+				m1 = !(p[2] && p[4] && p[6]);
+				m2 = !(p[4] && p[6] && p[8]);
+			} else {
+				m1 = !(p[2] && p[4] && p[8]);
+				m2 = !(p[2] && p[6] && p[8]);
+			}
+			lut[code] = b >= 2 && b <= 6 && a == 1 && m1 && m2;
+		}
+		return lut;
+	}
+
+	/**
+	 * Guo-Hall: deletes a pixel whose deletion does not disconnect its
+	 * neighbors (C = 1), which is not an end point (N in [2, 3]) and which
+	 * lies on the south-east (north-west in the second sub-iteration)
+	 * boundary.
+	 */
+	private static boolean[] createGuoHallLUT(int iteration) {
+		final boolean[] lut = new boolean[256];
+		for (int code = 0; code < 256; code++) {
+			final boolean[] p = neighbors(code);
+			final int c = (!p[2] && (p[3] || p[4]) ? 1 : 0)
+					+ (!p[4] && (p[5] || p[6]) ? 1 : 0)
+					+ (!p[6] && (p[7] || p[8]) ? 1 : 0)
+					+ (!p[8] && (p[9] || p[2]) ? 1 : 0);
+			final int n1 = (p[9] || p[2] ? 1 : 0) + (p[3] || p[4] ? 1 : 0)
+					+ (p[5] || p[6] ? 1 : 0) + (p[7] || p[8] ? 1 : 0);
+			final int n2 = (p[2] || p[3] ? 1 : 0) + (p[4] || p[5] ? 1 : 0)
+					+ (p[6] || p[7] ? 1 : 0) + (p[8] || p[9] ? 1 : 0);
+			final int n = Math.min(n1, n2);
+			final boolean m = iteration == 0 ? (p[6] || p[7] || !p[9]) && p[8]
+					: (p[2] || p[3] || !p[5]) && p[4];
+			lut[code] = c == 1 && n >= 2 && n <= 3 && !m;
+		}
+		return lut;
+	}
+
+	/**
+	 * Decodes a neighborhood code, index k of the result is P<sub>k</sub>.
+	 */
+	private static boolean[] neighbors(int code) {
+		final boolean[] p = new boolean[10];
+		for (int k = 2; k <= 9; k++) {
+			p[k] = (code & 1 << (k - 2)) != 0;
+		}
+		return p;
+	}
+
+	/**
+	 * Buffers of the working image of one image at a time.
+	 */
+	static final class Workspace {
+		byte[] pixels = new byte[0];
+		int[][] deleted = new int[0][];
+		int[] numDeleted = new int[0];
+	}
+
+	@Override
+	public UnaryOperation<TYPE, TYPE> copy() {
+		return new Thinning2D<TYPE>(algorithm, runner.getExecutor(), buffers);
+	}
+}
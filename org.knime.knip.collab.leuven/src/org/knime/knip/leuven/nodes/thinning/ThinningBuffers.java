@@ -0,0 +1,34 @@
+package org.knime.knip.leuven.nodes.thinning;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Working buffers of the thinnings of one node execution. A thinning takes
+ * the buffers of an image which is done instead of allocating new ones and
+ * returns them when its own image is done, hence there are at most as many
+ * buffers as images thinned at the same time. The buffers are released with
+ * this object, i.e. at the end of the execution.
+ */
+final class ThinningBuffers {
+
+	/**
+	 * Upper bound for the size of a working image which is kept for the next
+	 * image, larger buffers are released after use.
+	 */
+	static final int MAX_KEPT_SIZE = 1 << 24;
+
+	/** buffers of {@link Thinning} */
+	final Queue<Thinning.Workspace> lee94 = new ConcurrentLinkedQueue<Thinning.Workspace>();
+
+	/** buffers of {@link Thinning2D} */
+	final Queue<Thinning2D.Workspace> thinning2D = new ConcurrentLinkedQueue<Thinning2D.Workspace>();
+
+	/**
+	 * Releases all buffers.
+	 */
+	void clear() {
+		lee94.clear();
+		thinning2D.clear();
+	}
+}
@@ -2,6 +2,8 @@ package org.knime.knip.leuven.nodes.thinning;
 
 import net.imglib2.type.logic.BitType;
 
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
 import org.knime.knip.base.data.img.ImgPlusValue;
 import org.knime.knip.base.node.ValueToCellNodeDialog;
 import org.knime.knip.base.node.dialog.DialogComponentDimSelection;
@@ -20,7 +22,15 @@ public class ThinningNodeDialog extends
 
 		addDialogComponent(new DialogComponentDimSelection(
 				ThinningNodeModel.createDimSelectionModel(),
-				"Dimension selection"));
+				"Dimension selection", 2, 3));
+
+		addDialogComponent(new DialogComponentStringSelection(
+				ThinningNodeModel.createAlgorithmModel(), "Algorithm",
+				ThinningNodeModel.ALGORITHMS));
+
+		addDialogComponent(new DialogComponentBoolean(
+				ThinningNodeModel.createParallelBandsModel(),
+				"Lee94 in parallel bands"));
 
 	}
 
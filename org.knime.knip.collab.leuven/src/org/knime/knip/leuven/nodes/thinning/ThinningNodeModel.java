@@ -55,10 +55,18 @@ import java.util.List;
 import net.imagej.ImgPlus;
 import net.imglib2.img.Img;
 import net.imglib2.ops.operation.SubsetOperations;
+import net.imglib2.ops.operation.UnaryOperation;
 import net.imglib2.type.logic.BitType;
 
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.knip.base.data.img.ImgPlusCell;
 import org.knime.knip.base.data.img.ImgPlusCellFactory;
 import org.knime.knip.base.data.img.ImgPlusValue;
@@ -76,10 +84,37 @@ import org.knime.knip.core.KNIPGateway;
  */
 public class ThinningNodeModel extends ValueToCellNodeModel<ImgPlusValue<BitType>, ImgPlusCell<BitType>> {
 
+	public static final String CFG_ALGORITHM = "algorithm";
+
+	public static final String CFG_PARALLEL_BANDS = "parallelBands";
+
+	public static final String ALGORITHM_LEE = "Lee94 (Skeletonize3D)";
+
+	public static final String ALGORITHM_ZHANG_SUEN = "Zhang-Suen (2D)";
+
+	public static final String ALGORITHM_GUO_HALL = "Guo-Hall (2D)";
+
+	public static final String[] ALGORITHMS = new String[] { ALGORITHM_LEE,
+			ALGORITHM_ZHANG_SUEN, ALGORITHM_GUO_HALL };
+
 	private SettingsModelDimSelection m_dimSelection = createDimSelectionModel();
 
+	private SettingsModelString m_algorithm = createAlgorithmModel();
+
+	private SettingsModelBoolean m_parallelBands = createParallelBandsModel();
+
 	private ImgPlusCellFactory m_imgCellFactory;
 
+	/*
+	 * Thinning of the execution, the planes are thinned by copies of it which
+	 * share the working buffers, hence thinning many small images does not
+	 * allocate them again and again. Both are released when the execution
+	 * ends.
+	 */
+	private UnaryOperation<Img<BitType>, Img<BitType>> m_thinning;
+
+	private ThinningBuffers m_buffers;
+
 	/**
 	 * 
 	 */
@@ -91,12 +126,107 @@ public class ThinningNodeModel extends ValueToCellNodeModel<ImgPlusValue<BitType
 		return new SettingsModelDimSelection("dimselection", "X", "Y");
 	}
 
+	protected static SettingsModelString createAlgorithmModel() {
+		return new SettingsModelString(CFG_ALGORITHM, ALGORITHM_LEE);
+	}
+
+	protected static SettingsModelBoolean createParallelBandsModel() {
+		return new SettingsModelBoolean(CFG_PARALLEL_BANDS, false);
+	}
+
 	@Override
 	protected void addSettingsModels(List<SettingsModel> settingsModels) {
 
 		settingsModels.add(m_dimSelection);
 	}
 
+	/*
+	 * The algorithm and the bands are saved and loaded here rather than in
+	 * addSettingsModels, workflows saved before the settings existed use
+	 * Lee94 without bands.
+	 */
+
+	@Override
+	protected void saveSettingsTo(final NodeSettingsWO settings) {
+		super.saveSettingsTo(settings);
+		m_algorithm.saveSettingsTo(settings);
+		m_parallelBands.saveSettingsTo(settings);
+	}
+
+	@Override
+	protected void validateSettings(final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		super.validateSettings(settings);
+		String algorithm = ALGORITHM_LEE;
+		if (settings.containsKey(CFG_ALGORITHM)) {
+			final SettingsModelString validated = m_algorithm
+					.createCloneWithValidatedValue(settings);
+			algorithm = validated.getStringValue();
+		}
+		if (settings.containsKey(CFG_PARALLEL_BANDS)) {
+			m_parallelBands.createCloneWithValidatedValue(settings);
+		}
+		final SettingsModelDimSelection dimSelection = m_dimSelection
+				.createCloneWithValidatedValue(settings);
+		checkAlgorithm(algorithm, dimSelection.getNumSelectedDimLabels());
+	}
+
+	@Override
+	protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
+			throws InvalidSettingsException {
+		super.loadValidatedSettingsFrom(settings);
+		if (settings.containsKey(CFG_ALGORITHM)) {
+			m_algorithm.loadSettingsFrom(settings);
+		} else {
+			m_algorithm.setStringValue(ALGORITHM_LEE);
+		}
+		if (settings.containsKey(CFG_PARALLEL_BANDS)) {
+			m_parallelBands.loadSettingsFrom(settings);
+		} else {
+			m_parallelBands.setBooleanValue(false);
+		}
+	}
+
+	@Override
+	protected DataTableSpec[] configure(final DataTableSpec[] inSpecs)
+			throws InvalidSettingsException {
+		checkAlgorithm(m_algorithm.getStringValue(),
+				m_dimSelection.getNumSelectedDimLabels());
+		return super.configure(inSpecs);
+	}
+
+	/*
+	 * Zhang-Suen and Guo-Hall thin planes only.
+	 */
+	private static void checkAlgorithm(final String algorithm,
+			final int numDims) throws InvalidSettingsException {
+		if (!ALGORITHM_LEE.equals(algorithm) && numDims != 2) {
+			throw new InvalidSettingsException(algorithm
+					+ " thins two dimensional images only, select two dimensions or "
+					+ ALGORITHM_LEE + ".");
+		}
+	}
+
+	/**
+	 * Lee94 gets the executor only if the bands are selected, as the skeleton
+	 * in bands may differ from the plugin's by a few pixels.
+	 * 
+	 * @return a new instance of the selected thinning algorithm
+	 */
+	private UnaryOperation<Img<BitType>, Img<BitType>> createThinning() {
+		if (ALGORITHM_ZHANG_SUEN.equals(m_algorithm.getStringValue())) {
+			return new Thinning2D<Img<BitType>>(Thinning2D.ZHANG_SUEN,
+					getExecutorService(), m_buffers);
+		}
+		if (ALGORITHM_GUO_HALL.equals(m_algorithm.getStringValue())) {
+			return new Thinning2D<Img<BitType>>(Thinning2D.GUO_HALL,
+					getExecutorService(), m_buffers);
+		}
+		return new Thinning<Img<BitType>>(
+				m_parallelBands.getBooleanValue() ? getExecutorService() : null,
+				false, m_buffers);
+	}
+
 	/**
 	 * Starts the thinning operation.
 	 * 
@@ -106,7 +236,7 @@ public class ThinningNodeModel extends ValueToCellNodeModel<ImgPlusValue<BitType
 	@Override
 	protected ImgPlusCell<BitType> compute(ImgPlusValue<BitType> cellValue) throws Exception {
 
-		Img<BitType> res = SubsetOperations.iterate(new Thinning<Img<BitType>>(),
+		Img<BitType> res = SubsetOperations.iterate(m_thinning,
 				m_dimSelection.getSelectedDimIndices(cellValue.getImgPlus()), cellValue.getImgPlus(),
 				KNIPGateway.ops().create().img(cellValue.getImgPlus()), getExecutorService());
 
@@ -117,5 +247,34 @@ public class ThinningNodeModel extends ValueToCellNodeModel<ImgPlusValue<BitType
 	@Override
 	protected void prepareExecute(ExecutionContext exec) {
 		m_imgCellFactory = new ImgPlusCellFactory(exec);
+		m_buffers = new ThinningBuffers();
+		m_thinning = createThinning();
+	}
+
+	@Override
+	protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
+			final ExecutionContext exec) throws Exception {
+		try {
+			return super.execute(inData, exec);
+		} finally {
+			releaseBuffers();
+		}
+	}
+
+	@Override
+	protected void reset() {
+		super.reset();
+		releaseBuffers();
+	}
+
+	/**
+	 * Releases the working buffers of the thinnings.
+	 */
+	private void releaseBuffers() {
+		if (m_buffers != null) {
+			m_buffers.clear();
+		}
+		m_buffers = null;
+		m_thinning = null;
 	}
 }